@@ -0,0 +1,96 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of copying a single library out of a jar, for stored and
+ * deflated entries of various sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ExtractionBenchmark {
+
+	@Param({ "65536", "4194304", "67108864" })
+	public int size;
+
+	@Param({ "true", "false" })
+	public boolean stored;
+
+	private File dir;
+	private BaseJniExtractor extractor;
+	private URL resource;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = Fixtures.createTempDir("extraction-benchmark");
+		final File jar = Fixtures.createJar(dir, 1, size, stored);
+		resource = new URL("jar:" + jar.toURI() + "!/" + Fixtures.platformPath() +
+			Fixtures.name(0));
+		extractor = new DefaultJniExtractor(null);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		Fixtures.deleteRecursively(extractor.getJniDir());
+		Fixtures.deleteRecursively(dir);
+	}
+
+	@Benchmark
+	public File extractResource() throws IOException {
+		final File file =
+			extractor.extractResource(extractor.getJniDir(), resource, "bench.so");
+		file.delete();
+		return file;
+	}
+}
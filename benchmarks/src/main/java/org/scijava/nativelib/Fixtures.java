@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.slf4j.LoggerFactory;
+
+/**
+ * Synthetic fixtures for the benchmarks: jars full of fake libraries, and
+ * class loaders which see them.
+ */
+final class Fixtures {
+
+	private Fixtures() {
+		// prevent instantiation of utility class
+	}
+
+	/** the platform directory the loader searches on this machine */
+	static String platformPath() {
+		return NativeLibraryUtil.getPlatformLibraryPath(
+			NativeLibraryUtil.DEFAULT_SEARCH_PATH);
+	}
+
+	/**
+	 * Creates a jar with {@code count} libraries of {@code size} random bytes
+	 * each, named {@code lib0.so}, {@code lib1.so}, ..., and registered for
+	 * auto-extraction.
+	 *
+	 * @param stored whether to store the libraries uncompressed
+	 */
+	static File createJar(final File dir, final int count, final int size,
+		final boolean stored) throws IOException
+	{
+		final byte[] content = new byte[size];
+		new Random(42).nextBytes(content);
+		final CRC32 crc = new CRC32();
+		crc.update(content);
+
+		final File jar = File.createTempFile("fixture", ".jar", dir);
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		final JarOutputStream out =
+			new JarOutputStream(new FileOutputStream(jar), manifest);
+		try {
+			final StringBuilder list = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				final JarEntry entry = new JarEntry(platformPath() + name(i));
+				if (stored) {
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(size);
+					entry.setCompressedSize(size);
+					entry.setCrc(crc.getValue());
+				}
+				out.putNextEntry(entry);
+				out.write(content);
+				out.closeEntry();
+				list.append(name(i)).append('\n');
+			}
+			out.putNextEntry(new JarEntry(platformPath() + "AUTOEXTRACT.LIST"));
+			out.write(list.toString().getBytes("UTF-8"));
+			out.closeEntry();
+		}
+		finally {
+			out.close();
+		}
+		return jar;
+	}
+
+	/**
+	 * Creates a jar holding a copy of a real library of the running JVM, under
+	 * the given library name, so that it can actually be loaded.
+	 */
+	static File createLoadableJar(final File dir, final String libName)
+		throws IOException
+	{
+		final File source = findJvmLibrary();
+		final File jar = File.createTempFile("loadable", ".jar", dir);
+		final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			out.putNextEntry(new JarEntry(platformPath() +
+				System.mapLibraryName(libName)));
+			final InputStream in = new FileInputStream(source);
+			try {
+				final byte[] buffer = new byte[65536];
+				for (int len; (len = in.read(buffer)) > 0;) {
+					out.write(buffer, 0, len);
+				}
+			}
+			finally {
+				in.close();
+			}
+			out.closeEntry();
+		}
+		finally {
+			out.close();
+		}
+		return jar;
+	}
+
+	private static File findJvmLibrary() throws IOException {
+		final File home = new File(System.getProperty("java.home"));
+		final String name = System.mapLibraryName("zip");
+		for (final String path : new String[] { "lib/", "lib/amd64/",
+			"lib/aarch64/", "bin/" })
+		{
+			final File file = new File(home, path + name);
+			if (file.isFile()) return file;
+		}
+		throw new IOException("Cannot find " + name + " in " + home);
+	}
+
+	static String name(final int i) {
+		return "lib" + i + ".so";
+	}
+
+	/**
+	 * Creates a class loader which loads the native library loader itself, so
+	 * that its static state is fresh and its class loader sees the fixtures.
+	 */
+	static URLClassLoader isolatedLoader(final File... jars) throws IOException {
+		final Set<URL> urls = new LinkedHashSet<URL>();
+		urls.add(location(NativeLoader.class));
+		urls.add(location(LoggerFactory.class));
+		for (final File jar : jars) {
+			urls.add(jar.toURI().toURL());
+		}
+		return new URLClassLoader(urls.toArray(new URL[urls.size()]),
+			ClassLoader.getSystemClassLoader().getParent());
+	}
+
+	private static URL location(final Class<?> c) {
+		return c.getProtectionDomain().getCodeSource().getLocation();
+	}
+
+	static void deleteRecursively(final File file) {
+		final File[] files = file.listFiles();
+		if (files != null) {
+			for (final File f : files) {
+				deleteRecursively(f);
+			}
+		}
+		file.delete();
+	}
+
+	static File createTempDir(final String prefix) throws IOException {
+		final File dir = File.createTempFile(prefix, "");
+		dir.delete();
+		if (!dir.mkdirs()) throw new IOException("Cannot create " + dir);
+		return dir;
+	}
+}
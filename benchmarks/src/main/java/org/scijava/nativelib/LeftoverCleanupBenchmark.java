@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning a temporary directory with thousands of entries for leftover
+ * extraction folders. Only a few of the entries belong to the loader and
+ * none of them is old enough to be deleted, so every invocation scans the
+ * same directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LeftoverCleanupBenchmark {
+
+	@Param({ "1000", "10000" })
+	public int entries;
+
+	@Param({ "10" })
+	public int leftovers;
+
+	private static final String LEFTOVER_MIN_AGE =
+		"org.scijava.nativelib.leftoverMinAgeMs";
+
+	private File tmpDir;
+	private BaseJniExtractor extractor;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		tmpDir = Fixtures.createTempDir("cleanup-benchmark");
+		for (int i = 0; i < entries; i++) {
+			new File(tmpDir, "unrelated" + i).createNewFile();
+		}
+		for (int i = 0; i < leftovers; i++) {
+			final File folder = new File(tmpDir, BaseJniExtractor.TMP_PREFIX + i);
+			folder.mkdir();
+			new File(folder, Fixtures.name(i)).createNewFile();
+		}
+		extractor = new DefaultJniExtractor(null);
+		System.setProperty(LEFTOVER_MIN_AGE,
+			String.valueOf(Long.MAX_VALUE));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.clearProperty(LEFTOVER_MIN_AGE);
+		Fixtures.deleteRecursively(extractor.getJniDir());
+		Fixtures.deleteRecursively(tmpDir);
+	}
+
+	@Benchmark
+	public void deleteLeftoverFiles() {
+		// only the fixture, not the extraction root or the real temp directory
+		extractor.deleteLeftoverFiles(tmpDir);
+	}
+}
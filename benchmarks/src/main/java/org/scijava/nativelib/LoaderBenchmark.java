@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link NativeLoader#loadLibrary} from a jar. The cold case loads a fresh
+ * copy of the loader each time, so it pays for initialization, extraction and
+ * {@code System.load}; the warm case asks again for a library which is
+ * already loaded.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoaderBenchmark {
+
+	private static final String LIBRARY = "nativeLibLoaderBenchmark";
+
+	private File dir;
+	private File jar;
+	private URLClassLoader coldLoader;
+	private Method warmLoad;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() throws Exception {
+		dir = Fixtures.createTempDir("loader-benchmark");
+		jar = Fixtures.createLoadableJar(dir, LIBRARY);
+		warmLoad = loadLibraryMethod(Fixtures.isolatedLoader(jar));
+		invoke(warmLoad);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() throws IOException {
+		coldLoader = Fixtures.isolatedLoader(jar);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownInvocation() throws IOException {
+		coldLoader.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		Fixtures.deleteRecursively(dir);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Measurement(iterations = 20)
+	public void cold() throws Exception {
+		invoke(loadLibraryMethod(coldLoader));
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public void warm() throws Exception {
+		invoke(warmLoad);
+	}
+
+	private static Method loadLibraryMethod(final ClassLoader loader)
+		throws Exception
+	{
+		return loader.loadClass(NativeLoader.class.getName()).getMethod(
+			"loadLibrary", String.class, String[].class);
+	}
+
+	private static void invoke(final Method loadLibrary) throws Exception {
+		try {
+			loadLibrary.invoke(null, LIBRARY, new String[0]);
+		}
+		catch (final InvocationTargetException e) {
+			throw (Exception) e.getCause();
+		}
+	}
+}
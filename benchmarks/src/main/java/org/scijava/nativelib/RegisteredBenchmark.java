@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to extract every library listed in {@code AUTOEXTRACT.LIST}, with a
+ * freshly loaded copy of the loader each time so that no index or cache
+ * survives between invocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RegisteredBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int count;
+
+	@Param({ "65536" })
+	public int size;
+
+	private File dir;
+	private File jar;
+	private URLClassLoader loader;
+	private List<?> extracted;
+
+	@Setup(Level.Trial)
+	public void setUpTrial() throws IOException {
+		dir = Fixtures.createTempDir("registered-benchmark");
+		jar = Fixtures.createJar(dir, count, size, false);
+	}
+
+	@Setup(Level.Invocation)
+	public void setUpInvocation() throws IOException {
+		loader = Fixtures.isolatedLoader(jar);
+	}
+
+	@TearDown(Level.Invocation)
+	public void tearDownInvocation() throws IOException {
+		if (extracted != null && !extracted.isEmpty()) {
+			Fixtures.deleteRecursively(((File) extracted.get(0)).getParentFile());
+		}
+		extracted = null;
+		loader.close();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDownTrial() {
+		Fixtures.deleteRecursively(dir);
+	}
+
+	@Benchmark
+	public List<?> extractRegistered() throws Exception {
+		final Class<?> c = loader.loadClass(DefaultJniExtractor.class.getName());
+		final Object extractor =
+			c.getConstructor(Class.class).newInstance((Object) null);
+		try {
+			extracted =
+				(List<?>) c.getMethod("extractRegisteredLibraries").invoke(extractor);
+		}
+		catch (final InvocationTargetException e) {
+			throw (Exception) e.getCause();
+		}
+		return extracted;
+	}
+}
@@ -37,15 +37,34 @@
 package org.scijava.nativelib;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,7 +72,7 @@ import org.slf4j.LoggerFactory;
 /**
  * @author Richard van der Hoff (richardv@mxtelecom.com)
  */
-public abstract class BaseJniExtractor implements JniExtractor {
+public abstract class BaseJniExtractor implements JniExtractor, Closeable {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(
 		"org.scijava.nativelib.BaseJniExtractor");
@@ -62,6 +81,29 @@ public abstract class BaseJniExtractor implements JniExtractor {
 	protected static final String TMP_PREFIX = "nativelib-loader_";
 	private static final String LEFTOVER_MIN_AGE = "org.scijava.nativelib.leftoverMinAgeMs";
 	private static final long LEFTOVER_MIN_AGE_DEFAULT = 5 * 60 * 1000; // 5 minutes
+	private static final String CLEANUP_BUDGET = "org.scijava.nativelib.cleanupBudgetMs";
+	private static final long CLEANUP_BUDGET_DEFAULT = 1000;
+	private static final String CLEANUP_INTERVAL = "org.scijava.nativelib.cleanupInterval";
+	private static final int CLEANUP_INTERVAL_DEFAULT = 1;
+	/** counts the starts since the last cleanup, in the temporary directory */
+	private static final String STARTS_FILE = "nativelib-loader.starts";
+	private static final String LOAD_IN_PLACE = "org.scijava.nativelib.loadInPlace";
+	private static final String EXTRACT_THREADS = "org.scijava.nativelib.extractThreads";
+	private static final int EXTRACT_THREADS_DEFAULT =
+		Math.min(4, Runtime.getRuntime().availableProcessors());
+	private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+	/** serialize writes to the same file */
+	private static final StripedLocks OUTPUT_LOCKS = new StripedLocks(64);
+
+	private static final ThreadLocal<ByteBuffer> COPY_BUFFER =
+		new ThreadLocal<ByteBuffer>() {
+
+			@Override
+			protected ByteBuffer initialValue() {
+				return ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+			}
+		};
 
 	private Class<?> libraryJarClass;
 
@@ -71,7 +113,21 @@ public abstract class BaseJniExtractor implements JniExtractor {
 	 * interfering with each other And by setting mx.sysinfo the jvm can pick the
 	 * native libraries appropriate for itself.
 	 */
-	private String[] nativeResourcePaths;
+	private List<String> nativeResourcePaths;
+
+	/**
+	 * Whether libraries which exist as plain files on the classpath are used
+	 * where they are instead of being copied.
+	 */
+	private boolean loadInPlace = Boolean.getBoolean(LOAD_IN_PLACE);
+
+	private volatile ExecutorService extractionExecutor;
+
+	private volatile ResourceProvider resourceProvider =
+		new JarResourceProvider();
+
+	/** whether the leftover cleanup has already been started in this JVM */
+	private static final AtomicBoolean cleanupStarted = new AtomicBoolean();
 
 	public BaseJniExtractor() throws IOException {
 		init(null);
@@ -84,29 +140,84 @@ public abstract class BaseJniExtractor implements JniExtractor {
 	private void init(final Class<?> libraryJarClass) {
 		this.libraryJarClass = libraryJarClass;
 
-		final String mxSysInfo = MxSysInfo.getMxSysInfo();
+		nativeResourcePaths = Platform.current().getResourcePaths();
+		// clean up leftover libraries from previous runs, without making anybody
+		// wait for it
+		startLeftoverCleanup();
+	}
+
+	/**
+	 * Runs {@link #deleteLeftoverFiles()} on a low-priority daemon thread, once
+	 * per JVM and only every {@code org.scijava.nativelib.cleanupInterval}
+	 * starts (by default, every start; 0 disables the cleanup).
+	 */
+	private void startLeftoverCleanup() {
+		if (!cleanupStarted.compareAndSet(false, true)) return;
+		final Thread thread = new DaemonThreadFactory("native-lib-cleanup",
+			Thread.MIN_PRIORITY).newThread(new Runnable() {
+
+				@Override
+				public void run() {
+					if (isCleanupDue()) deleteLeftoverFiles();
+				}
+			});
+		thread.start();
+	}
 
-		if (mxSysInfo != null) {
-			nativeResourcePaths =
-				new String[] { "natives/", "META-INF/lib/" + mxSysInfo + "/", "META-INF/lib/" };
+	/**
+	 * Counts this start, and decides whether it is the one which cleans up.
+	 * Concurrent starts may miscount, which only shifts the next cleanup.
+	 */
+	private boolean isCleanupDue() {
+		final int interval = getCleanupInterval();
+		if (interval <= 1) return interval == 1;
+		final File counter =
+			new File(System.getProperty(JAVA_TMPDIR, ALTR_TMPDIR), STARTS_FILE);
+		int starts = 0;
+		try {
+			final BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new FileInputStream(counter), "UTF-8"));
+			try {
+				starts = Integer.parseInt(reader.readLine().trim());
+			}
+			finally {
+				reader.close();
+			}
 		}
-		else {
-			nativeResourcePaths = new String[] { "natives/", "META-INF/lib/" };
+		catch (final Exception e) {
+			// missing or garbled: start counting afresh
 		}
-		// clean up leftover libraries from previous runs
-		deleteLeftoverFiles();
+		starts++;
+		final boolean due = starts >= interval;
+		try {
+			final Writer writer =
+				new OutputStreamWriter(new FileOutputStream(counter), "UTF-8");
+			try {
+				writer.write(String.valueOf(due ? 0 : starts));
+			}
+			finally {
+				writer.close();
+			}
+		}
+		catch (final IOException e) {
+			debug("Cannot update " + counter + ": " + e);
+		}
+		return due;
 	}
 
-	private static boolean deleteRecursively(final File directory) {
+	private static boolean deleteRecursively(final File directory,
+		final long deadline)
+	{
 		if (directory == null) return true;
 		final File[] list = directory.listFiles();
 		if (list == null) return true;
 		for (final File file : list) {
+			if (System.nanoTime() - deadline > 0) return false;
 			if (file.isFile()) {
 				if (!file.delete()) return false;
 			}
 			else if (file.isDirectory()) {
-				if (!deleteRecursively(file)) return false;
+				if (!deleteRecursively(file, deadline)) return false;
 			}
 		}
 		return directory.delete();
@@ -115,18 +226,32 @@ public abstract class BaseJniExtractor implements JniExtractor {
 	protected static File getTempDir() throws IOException {
 		// creates a temporary directory for hosting extracted files
 		// If system tempdir is not available, use tmplib
-		File tmpDir = new File(System.getProperty(JAVA_TMPDIR, ALTR_TMPDIR));
+		File tmpDir = getExtractionRoot();
 		if (!tmpDir.isDirectory()) {
 			tmpDir.mkdirs();
 			if (!tmpDir.isDirectory())
 				throw new IOException("Unable to create temporary directory " + tmpDir);
 		}
 
-		File tempFile = File.createTempFile(TMP_PREFIX, "");
+		File tempFile = File.createTempFile(TMP_PREFIX, "", tmpDir);
 		tempFile.delete();
 		return tempFile;
 	}
 
+	/**
+	 * Returns the directory below which libraries are extracted. This is the
+	 * first usable directory listed in the
+	 * {@code org.scijava.nativelib.extractionRoot} system property (default to
+	 * the RAM-backed {@code /dev/shm}), i.e. one which exists, is writable, is
+	 * not mounted {@code noexec} and has room; otherwise it is
+	 * {@code java.io.tmpdir}.
+	 *
+	 * @return the chosen extraction root
+	 */
+	public static File getExtractionRoot() {
+		return ExtractionRoot.get();
+	}
+
 	/**
 	 * this is where native dependencies are extracted to (e.g. tmplib/).
 	 * 
@@ -142,6 +267,31 @@ public abstract class BaseJniExtractor implements JniExtractor {
 	 */
 	public abstract File getJniDir();
 
+	/**
+	 * @return whether libraries found in a directory on the classpath (rather
+	 *         than inside a jar) are used from there without being copied
+	 */
+	public boolean isLoadInPlace() {
+		return loadInPlace;
+	}
+
+	/**
+	 * Controls whether libraries found in a directory on the classpath (e.g. an
+	 * exploded build output directory) are used from their original location
+	 * instead of being copied. Libraries inside jars are always extracted. The
+	 * default is given by the {@code org.scijava.nativelib.loadInPlace} system
+	 * property.
+	 * <p>
+	 * Note that a library on a given path can only be loaded by one classloader,
+	 * so this should not be enabled if several classloaders load the same
+	 * libraries.
+	 *
+	 * @param loadInPlace true to skip copying libraries from file: URLs
+	 */
+	public void setLoadInPlace(final boolean loadInPlace) {
+		this.loadInPlace = loadInPlace;
+	}
+
 	@Override
 	public File extractJni(final String libPath, final String libname)
 		throws IOException
@@ -162,7 +312,8 @@ public abstract class BaseJniExtractor implements JniExtractor {
 		// foolproof
 		String combinedPath = (libPath.equals("") || libPath.endsWith(NativeLibraryUtil.DELIM) ?
 				libPath : libPath + NativeLibraryUtil.DELIM) + mappedlibName;
-		lib = libraryJarClass.getClassLoader().getResource(combinedPath);
+		final ClassLoader loader = libraryJarClass.getClassLoader();
+		lib = findResource(loader, combinedPath);
 		if (null == lib) {
 			/*
 			 * On OS X, the default mapping changed from .jnilib to .dylib as of JDK 7, so
@@ -182,68 +333,273 @@ public abstract class BaseJniExtractor implements JniExtractor {
 				altLibName = null;
 			}
 			if (altLibName != null) {
-				lib = getClass().getClassLoader().getResource(libPath + altLibName);
+				lib = findResource(loader, combinedPath.substring(0,
+					combinedPath.length() - mappedlibName.length()) + altLibName);
 				if (lib != null) {
 					mappedlibName = altLibName;
 				}
 			}
 		}
+		if (null == lib) {
+			// the library may be packaged in compressed form
+			lib = findCompressedResource(loader, combinedPath);
+		}
 
 		if (null != lib) {
 			debug("URL is " + lib.toString());
 			debug("URL path is " + lib.getPath());
-			return extractResource(getJniDir(), lib, mappedlibName);
+			return extractOrLocate(getJniDir(), lib, mappedlibName);
 		}
 		debug("Couldn't find resource " + combinedPath);
 		return null;
 	}
 
+	/**
+	 * @return the executor used by {@link #extractRegistered()}, or null if a
+	 *         temporary thread pool is created for each call
+	 */
+	public ExecutorService getExtractionExecutor() {
+		return extractionExecutor;
+	}
+
+	/**
+	 * Sets the executor on which {@link #extractRegistered()} runs the
+	 * extraction of the individual libraries. If none is set, each call uses a
+	 * temporary pool with as many threads as given by the
+	 * {@code org.scijava.nativelib.extractThreads} system property (by default,
+	 * the number of processors, but at most 4).
+	 *
+	 * @param executor the executor to use, or null for a temporary pool
+	 */
+	public void setExtractionExecutor(final ExecutorService executor) {
+		this.extractionExecutor = executor;
+	}
+
+	/**
+	 * @return the provider which opens the resources libraries are extracted
+	 *         from; by default a {@link JarResourceProvider}
+	 */
+	public ResourceProvider getResourceProvider() {
+		return resourceProvider;
+	}
+
+	/**
+	 * Sets the provider which opens the resources libraries are extracted from.
+	 * It is closed when the extractor is; the previous one is not closed.
+	 *
+	 * @param resourceProvider the provider to use
+	 */
+	public void setResourceProvider(final ResourceProvider resourceProvider) {
+		if (resourceProvider == null) {
+			throw new NullPointerException("resourceProvider");
+		}
+		this.resourceProvider = resourceProvider;
+	}
+
+	/**
+	 * Releases the jar files the {@link #getResourceProvider() resource
+	 * provider} holds open. Libraries which are still needed can be extracted
+	 * afterwards, at the cost of reading them through their URLs.
+	 */
+	@Override
+	public void close() throws IOException {
+		resourceProvider.close();
+	}
+
 	@Override
 	public void extractRegistered() throws IOException {
+		extractRegisteredLibraries();
+	}
+
+	/**
+	 * Extract all libraries which are registered for auto-extraction, like
+	 * {@link #extractRegistered()}.
+	 *
+	 * @return the extracted files, in the order in which they are registered
+	 * @throws IOException when extracting any of the libraries failed
+	 */
+	public List<File> extractRegisteredLibraries() throws IOException {
 		debug("Extracting libraries registered in classloader " +
 			this.getClass().getClassLoader());
-		for (final String nativeResourcePath : nativeResourcePaths) {
-			final Enumeration<URL> resources =
-				this.getClass().getClassLoader().getResources(
-					nativeResourcePath + "AUTOEXTRACT.LIST");
-			while (resources.hasMoreElements()) {
-				final URL res = resources.nextElement();
-				extractLibrariesFromResource(res);
+		final Object event = NativeEvents.EXTRACT_REGISTERED.begin();
+		final Set<String> libraries = new LinkedHashSet<String>();
+		List<File> files = null;
+		String outcome = "failed";
+		try {
+			for (final String nativeResourcePath : nativeResourcePaths) {
+				final Enumeration<URL> resources =
+					this.getClass().getClassLoader().getResources(
+						nativeResourcePath + "AUTOEXTRACT.LIST");
+				while (resources.hasMoreElements()) {
+					final URL res = resources.nextElement();
+					readLibrariesFromResource(res, libraries);
+				}
+			}
+			files = extractLibraries(libraries);
+			outcome = "extracted " + files.size() + " libraries";
+			return files;
+		}
+		catch (final IOException e) {
+			outcome = NativeEvents.failed(e);
+			throw e;
+		}
+		finally {
+			if (event != null) {
+				long bytes = 0;
+				if (files != null) {
+					for (final File file : files) {
+						bytes += file.length();
+					}
+				}
+				NativeEvents.EXTRACT_REGISTERED.commit(event, libraries.toString(),
+					this.getClass().getClassLoader(), getNativeDir(), bytes, outcome);
 			}
 		}
 	}
 
-	private void extractLibrariesFromResource(final URL resource)
-		throws IOException
+	private void readLibrariesFromResource(final URL resource,
+		final Set<String> libraries) throws IOException
 	{
-		debug("Extracting libraries listed in " + resource);
+		debug("Reading libraries listed in " + resource);
 		BufferedReader reader = null;
 		try {
 			reader =
 				new BufferedReader(
 					new InputStreamReader(resource.openStream(), "UTF-8"));
 			for (String line; (line = reader.readLine()) != null;) {
-				URL lib = null;
-				for (final String nativeResourcePath : nativeResourcePaths) {
-					lib =
-						this.getClass().getClassLoader().getResource(
-							nativeResourcePath + line);
-					if (lib != null) break;
+				libraries.add(line);
+			}
+		}
+		finally {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Extracts the given libraries concurrently and waits until all of them
+	 * are written, even if some of them fail.
+	 */
+	private List<File> extractLibraries(final Set<String> libraries)
+		throws IOException
+	{
+		if (libraries.isEmpty()) return new ArrayList<File>();
+		ExecutorService executor = extractionExecutor;
+		final boolean temporary = executor == null;
+		final int threads = Math.min(getExtractThreads(), libraries.size());
+		if (temporary && threads > 1) {
+			executor = Executors.newFixedThreadPool(threads,
+				new DaemonThreadFactory("native-lib-extractor"));
+		}
+		try {
+			final List<Future<File>> futures = new ArrayList<Future<File>>();
+			for (final String library : libraries) {
+				final FutureTask<File> task = new FutureTask<File>(new Callable<File>() {
+
+					@Override
+					public File call() throws IOException {
+						return extractLibrary(library);
+					}
+				});
+				// without a thread pool, extract on the calling thread
+				if (executor == null) task.run();
+				else executor.execute(task);
+				futures.add(task);
+			}
+
+			final List<File> files = new ArrayList<File>();
+			final StringBuilder failures = new StringBuilder();
+			Throwable cause = null;
+			for (final Future<File> future : futures) {
+				try {
+					files.add(future.get());
 				}
-				if (lib != null) {
-					extractResource(getNativeDir(), lib, line);
+				catch (final ExecutionException e) {
+					if (cause == null) cause = e.getCause();
+					failures.append("\n\t").append(e.getCause().getMessage());
 				}
-				else {
-					throw new IOException("Couldn't find native library " + line +
-						"on the classpath");
+				catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(
+						"Interrupted while extracting registered libraries");
 				}
 			}
+			if (cause != null) {
+				final IOException exception = new IOException(
+					"Couldn't extract registered libraries:" + failures);
+				exception.initCause(cause);
+				throw exception;
+			}
+			return files;
 		}
 		finally {
-			if (reader != null) {
-				reader.close();
+			if (temporary && executor != null) executor.shutdown();
+		}
+	}
+
+	private File extractLibrary(final String library) throws IOException {
+		final ClassLoader loader = this.getClass().getClassLoader();
+		URL lib = null;
+		for (final String nativeResourcePath : nativeResourcePaths) {
+			lib = findResource(loader, nativeResourcePath + library);
+			if (lib != null) break;
+		}
+		for (int i = 0; lib == null && i < nativeResourcePaths.size(); i++) {
+			lib = findCompressedResource(loader, nativeResourcePaths.get(i) + library);
+		}
+		if (lib == null) {
+			throw new IOException("Couldn't find native library " + library +
+				" on the classpath");
+		}
+		return extractOrLocate(getNativeDir(), lib, library);
+	}
+
+	/**
+	 * Looks up a library, first in the build-time indexes of the class loader,
+	 * then in the class path itself.
+	 */
+	private static URL findResource(final ClassLoader loader, final String path) {
+		final long start = System.nanoTime();
+		URL resource = NativeIndex.forClassLoader(loader).getResource(path);
+		if (resource == null) {
+			resource = NativeResourceIndex.forClassLoader(loader).getResource(path);
+		}
+		NativeMetrics.resourceLookedUp(path, resource != null,
+			System.nanoTime() - start);
+		return resource;
+	}
+
+	/**
+	 * Looks up a compressed variant of a library, for each known
+	 * {@link NativeCodec}.
+	 */
+	private static URL findCompressedResource(final ClassLoader loader,
+		final String path)
+	{
+		for (final NativeCodec codec : NativeCodecs.getCodecs()) {
+			final URL lib = findResource(loader, path + codec.getSuffix());
+			if (lib != null) return lib;
+		}
+		return null;
+	}
+
+	/**
+	 * Extract a resource, unless it is a plain file which may be used in place.
+	 */
+	private File extractOrLocate(final File dir, final URL resource,
+		final String outputName) throws IOException
+	{
+		if (loadInPlace && "file".equals(resource.getProtocol()) &&
+			!isCompressed(resource, outputName))
+		{
+			final File file = ZipEntryLocator.toFile(resource.toString());
+			if (file != null && file.isFile()) {
+				debug("Using '" + file.getAbsolutePath() + "' in place");
+				return file;
 			}
 		}
+		return extractResource(dir, resource, outputName);
 	}
 
 	/**
@@ -259,37 +615,137 @@ public abstract class BaseJniExtractor implements JniExtractor {
 	File extractResource(final File dir, final URL resource,
 		final String outputName) throws IOException
 	{
-		InputStream in = null;
+		// make a lib file with exactly the same lib name
+		final File outfile = new File(getJniDir(), outputName);
+		debug("Extracting '" + resource + "' to '" +
+			outfile.getAbsolutePath() + "'");
+		final Object event = NativeEvents.EXTRACT.begin();
+		String outcome = "failed";
 		try {
-			in = resource.openStream();
-			// TODO there's also a getResourceAsStream
+			writeResource(getResourceProvider(), resource, outfile, null);
+			outcome = "extracted";
+		}
+		catch (final IOException e) {
+			outcome = NativeEvents.failed(e);
+			throw e;
+		}
+		finally {
+			if (event != null) {
+				NativeEvents.EXTRACT.commit(event, outputName, resource, outfile,
+					outfile.length(), outcome);
+			}
+		}
 
-			// make a lib file with exactly the same lib name
-			final File outfile = new File(getJniDir(), outputName);
-			debug("Extracting '" + resource + "' to '" +
-				outfile.getAbsolutePath() + "'");
+		// note that this doesn't always work:
+		outfile.deleteOnExit();
 
-			// copy resource stream to temporary file
-			FileOutputStream out = null;
-			try {
-				out = new FileOutputStream(outfile);
-				copy(in, out);
-			} finally {
-				if (out != null) { out.close(); }
+		return outfile;
+	}
+
+	/**
+	 * Copies the contents of a resource to the given file, replacing whatever
+	 * was there before.
+	 *
+	 * @param resource the resource on the classpath
+	 * @param outfile the file to write to
+	 * @throws IOException if the resource cannot be read or the file written
+	 */
+	static void writeResource(final URL resource, final File outfile)
+		throws IOException
+	{
+		writeResource(null, resource, outfile, null);
+	}
+
+	/**
+	 * Copies the contents of a resource to the given file, updating a digest
+	 * with the bytes on their way through, so that the file does not need to be
+	 * read again to check its integrity.
+	 *
+	 * @param resource the resource on the classpath
+	 * @param outfile the file to write to
+	 * @param digest the digest to update with the library's contents, or null
+	 * @throws IOException if the resource cannot be read or the file written
+	 */
+	static void writeResource(final URL resource, final File outfile,
+		final MessageDigest digest) throws IOException
+	{
+		writeResource(null, resource, outfile, digest);
+	}
+
+	/**
+	 * Copies the contents of a resource to the given file, like
+	 * {@link #writeResource(URL, File, MessageDigest)}, reading compressed
+	 * entries through the given provider.
+	 *
+	 * @param provider the provider to open the resource with, or null to read
+	 *          it from its URL
+	 * @param resource the resource on the classpath
+	 * @param outfile the file to write to
+	 * @param digest the digest to update with the library's contents, or null
+	 * @throws IOException if the resource cannot be read or the file written
+	 */
+	static void writeResource(final ResourceProvider provider,
+		final URL resource, final File outfile, final MessageDigest digest)
+		throws IOException
+	{
+		// threads extracting the same library must not truncate each other's
+		// file; different libraries are written in parallel
+		synchronized (OUTPUT_LOCKS.get(outfile.getAbsolutePath())) {
+			final long start = System.nanoTime();
+			copyResource(provider, resource, outfile, digest);
+			NativeMetrics.resourceExtracted(resource, outfile, outfile.length(),
+				System.nanoTime() - start);
+		}
+	}
+
+	private static void copyResource(final ResourceProvider provider,
+		final URL resource, final File outfile, final MessageDigest digest)
+		throws IOException
+	{
+		final boolean compressed = isCompressed(resource, outfile.getName());
+		final FileOutputStream out = new FileOutputStream(outfile);
+		try {
+			final FileChannel target = out.getChannel();
+			final long[] range =
+				compressed ? null : ZipEntryLocator.findStoredEntry(resource);
+			if (range != null) {
+				// uncompressed jar entry: let the OS copy the bytes directly
+				transfer(ZipEntryLocator.getJarFile(resource), range[0], range[1],
+					target, digest);
+				return;
 			}
 
-			// note that this doesn't always work:
-			outfile.deleteOnExit();
+			ReadableByteChannel in = null;
+			try {
+				in = provider != null ? provider.open(resource)
+					: Channels.newChannel(resource.openStream());
+				if (compressed) {
+					in = Channels.newChannel(NativeCodecs.forName(resource.getPath())
+						.decode(Channels.newInputStream(in)));
+				}
 
-			return outfile;
+				// copy resource stream to temporary file
+				copy(in, target, digest);
+			} finally {
+				if (in != null) { in.close(); }
+			}
 		} finally {
-			if (in != null) { in.close(); }
+			out.close();
 		}
 	}
 
 	/**
-	 * Looks in the temporary directory for leftover versions of temporary shared
-	 * libraries.
+	 * Checks whether a resource is a compressed library which is to be
+	 * decompressed to the given file name.
+	 */
+	static boolean isCompressed(final URL resource, final String outputName) {
+		final NativeCodec codec = NativeCodecs.forName(resource.getPath());
+		return codec != null && !outputName.endsWith(codec.getSuffix());
+	}
+
+	/**
+	 * Looks in the extraction root and the temporary directory for leftover
+	 * versions of temporary shared libraries.
 	 * <p>
 	 * If a temporary shared library is in use by another instance it won't
 	 * delete.
@@ -302,9 +758,23 @@ public abstract class BaseJniExtractor implements JniExtractor {
 	 * Another issue is that createTempFile only guarantees to use the first three
 	 * characters of the prefix, so I could delete a similarly-named temporary
 	 * shared library if I haven't loaded it yet.
+	 * <p>
+	 * A pass stops after {@code org.scijava.nativelib.cleanupBudgetMs}
+	 * milliseconds (default to 1 second); whatever is left is deleted by a
+	 * later run.
 	 */
 	void deleteLeftoverFiles() {
-		final File tmpDirectory = new File(System.getProperty(JAVA_TMPDIR, ALTR_TMPDIR));
+		final File tmpDir = new File(System.getProperty(JAVA_TMPDIR, ALTR_TMPDIR));
+		final File root = getExtractionRoot();
+		deleteLeftoverFiles(root);
+		// libraries extracted before the root moved are still to be removed
+		if (!root.equals(tmpDir)) deleteLeftoverFiles(tmpDir);
+	}
+
+	void deleteLeftoverFiles(final File tmpDirectory) {
+		final Object event = NativeEvents.DELETE_LEFTOVERS.begin();
+		final long start = System.nanoTime();
+		final long deadline = start + getCleanupBudget() * 1000000;
 		final File[] folders = tmpDirectory.listFiles(new FilenameFilter() {
 
 			@Override
@@ -313,8 +783,14 @@ public abstract class BaseJniExtractor implements JniExtractor {
 			}
 		});
 		if (folders == null) return;
+		int deleted = 0;
 		long leftoverMinAge = getLeftoverMinAge();
 		for (final File folder : folders) {
+			if (System.nanoTime() - deadline > 0) {
+				debug("Leftover cleanup ran out of time after deleting " + deleted +
+					" of " + folders.length + " folders");
+				break;
+			}
 			// attempt to delete
 			long age = System.currentTimeMillis() - folder.lastModified();
 			if (age < leftoverMinAge) {
@@ -322,7 +798,39 @@ public abstract class BaseJniExtractor implements JniExtractor {
 				continue;
 			}
 			debug("Deleting leftover folder: " + folder);
-			deleteRecursively(folder);
+			if (deleteRecursively(folder, deadline)) deleted++;
+		}
+		NativeMetrics.leftoversDeleted(deleted, System.nanoTime() - start);
+		if (event != null) {
+			NativeEvents.DELETE_LEFTOVERS.commit(event, null, tmpDirectory, null, 0,
+				"deleted " + deleted + " of " + folders.length + " folders");
+		}
+	}
+
+	int getExtractThreads() {
+		try {
+			return Integer.parseInt(System.getProperty(EXTRACT_THREADS, String.valueOf(EXTRACT_THREADS_DEFAULT)));
+		} catch (NumberFormatException e) {
+			error("Cannot load extraction thread count system property", e);
+			return EXTRACT_THREADS_DEFAULT;
+		}
+	}
+
+	long getCleanupBudget() {
+		try {
+			return Long.parseLong(System.getProperty(CLEANUP_BUDGET, String.valueOf(CLEANUP_BUDGET_DEFAULT)));
+		} catch (NumberFormatException e) {
+			error("Cannot load cleanup budget system property", e);
+			return CLEANUP_BUDGET_DEFAULT;
+		}
+	}
+
+	int getCleanupInterval() {
+		try {
+			return Integer.parseInt(System.getProperty(CLEANUP_INTERVAL, String.valueOf(CLEANUP_INTERVAL_DEFAULT)));
+		} catch (NumberFormatException e) {
+			error("Cannot load cleanup interval system property", e);
+			return CLEANUP_INTERVAL_DEFAULT;
 		}
 	}
 
@@ -335,23 +843,140 @@ public abstract class BaseJniExtractor implements JniExtractor {
 		}
 	}
 	/**
-	 * copy an InputStream to an OutputStream.
+	 * copy a range of a file to a FileChannel, without the bytes passing through
+	 * the Java heap.
+	 *
+	 * @param file file to copy from
+	 * @param offset position of the first byte to copy
+	 * @param length number of bytes to copy
+	 * @param out FileChannel to copy to
+	 * @throws IOException if there's an error
+	 */
+	static void transfer(final File file, final long offset, final long length,
+		final FileChannel out) throws IOException
+	{
+		transfer(file, offset, length, out, null);
+	}
+
+	/**
+	 * copy a range of a file to a FileChannel. Without a digest, the bytes do
+	 * not pass through the Java heap; with one, they are read once through the
+	 * copy buffer, which feeds both the digest and the FileChannel.
+	 *
+	 * @param file file to copy from
+	 * @param offset position of the first byte to copy
+	 * @param length number of bytes to copy
+	 * @param out FileChannel to copy to
+	 * @param digest digest to update with the copied bytes, or null
+	 * @throws IOException if there's an error
+	 */
+	static void transfer(final File file, final long offset, final long length,
+		final FileChannel out, final MessageDigest digest) throws IOException
+	{
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel channel = in.getChannel();
+			long position = offset;
+			final long end = offset + length;
+			if (digest != null) {
+				channel.position(offset);
+				copy(new RangeChannel(channel, length), out, digest);
+				return;
+			}
+			while (position < end) {
+				final long count = channel.transferTo(position, end - position, out);
+				if (count <= 0) {
+					throw new IOException("Unexpected end of " + file);
+				}
+				position += count;
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * copy a ReadableByteChannel to a FileChannel, using a direct buffer which
+	 * is reused by all copies on the same thread.
 	 * 
-	 * @param in InputStream to copy from
-	 * @param out OutputStream to copy to
+	 * @param in ReadableByteChannel to copy from
+	 * @param out FileChannel to copy to
 	 * @throws IOException if there's an error
 	 */
-	static void copy(final InputStream in, final OutputStream out)
+	static void copy(final ReadableByteChannel in, final FileChannel out)
 		throws IOException
 	{
-		final byte[] tmp = new byte[8192];
-		int len = 0;
-		while (true) {
-			len = in.read(tmp);
-			if (len <= 0) {
-				break;
+		copy(in, out, null);
+	}
+
+	/**
+	 * copy a ReadableByteChannel to a FileChannel, updating a digest with every
+	 * byte as it passes through the buffer.
+	 *
+	 * @param in ReadableByteChannel to copy from
+	 * @param out FileChannel to copy to
+	 * @param digest digest to update with the copied bytes, or null
+	 * @throws IOException if there's an error
+	 */
+	static void copy(final ReadableByteChannel in, final FileChannel out,
+		final MessageDigest digest) throws IOException
+	{
+		final ByteBuffer buffer = COPY_BUFFER.get();
+		buffer.clear();
+		int digested = 0;
+		while (in.read(buffer) >= 0 || buffer.position() > 0) {
+			buffer.flip();
+			if (digest != null && buffer.limit() > digested) {
+				// the bytes left over by a short write were digested already
+				final ByteBuffer fresh = buffer.duplicate();
+				fresh.position(digested);
+				digest.update(fresh);
 			}
-			out.write(tmp, 0, len);
+			out.write(buffer);
+			digested = buffer.remaining();
+			buffer.compact();
+		}
+	}
+
+	/**
+	 * Reads at most a given number of bytes from a channel.
+	 */
+	private static class RangeChannel implements ReadableByteChannel {
+
+		private final ReadableByteChannel channel;
+		private long remaining;
+
+		RangeChannel(final ReadableByteChannel channel, final long length) {
+			this.channel = channel;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read(final ByteBuffer dst) throws IOException {
+			if (remaining <= 0) return -1;
+			final int limit = dst.limit();
+			if (dst.remaining() > remaining) {
+				dst.limit(dst.position() + (int) remaining);
+			}
+			try {
+				final int count = channel.read(dst);
+				if (count < 0) throw new IOException("Unexpected end of range");
+				remaining -= count;
+				return count;
+			}
+			finally {
+				dst.limit(limit);
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
 		}
 	}
 
@@ -0,0 +1,393 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.jar.JarEntry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JniExtractor which keeps extracted libraries in a persistent cache directory
+ * so that they survive JVM restarts.
+ * <p>
+ * Libraries are stored under a subdirectory keyed by the identity of the jar
+ * (or directory) they come from, so all libraries of one jar end up next to
+ * each other, just as they do with the {@link DefaultJniExtractor}. A library
+ * is only copied if the cached file is missing or its size and modification
+ * time do not match the classpath resource any more; otherwise the cached file
+ * is used as is. For jars with a {@link NativeIndex}, the subdirectory is
+ * named after the index instead, and only the size of a cached file is
+ * compared with the one recorded in the index.
+ * <p>
+ * The cache lives in the directory given by the
+ * {@code org.scijava.nativelib.cacheDir} system property, or in
+ * {@code nativelib-cache-<user>} below the extraction root. Since anybody can
+ * create directories there, the default one is only used if it is private to
+ * the current user (see {@link PrivateDirectory}).
+ * <p>
+ * A cached library is hashed once per JVM before it is used, and compared with
+ * the digest recorded when it was written (and the build-time index, if there
+ * is one).
+ * <p>
+ * JVMs which use the same cache directory share the extracted files, and with
+ * them the pages the operating system maps for the libraries. The first JVM to
+ * need a library writes it while holding a lock on a {@code .lock} file next
+ * to it; the others wait for the lock and then load the finished file. The
+ * {@code NativeLoader} uses this extractor if either the
+ * {@code org.scijava.nativelib.cacheDir} or the
+ * {@code org.scijava.nativelib.shared} system property is set.
+ * <p>
+ * WARNING: Like the {@link DefaultJniExtractor}, this extractor can result in
+ * UnsatisifiedLinkError if it is used in more than one classloader.
+ */
+public class CachingJniExtractor extends BaseJniExtractor {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.CachingJniExtractor");
+	static final String CACHE_DIR = "org.scijava.nativelib.cacheDir";
+	static final String SHARED = "org.scijava.nativelib.shared";
+	private static final String CACHE_DIR_NAME = "nativelib-cache";
+	private static final String LOCK_SUFFIX = ".lock";
+
+	/**
+	 * File locks are held by the whole process, so the threads of one process
+	 * take turns on a plain monitor first.
+	 */
+	private static final StripedLocks THREAD_LOCKS = new StripedLocks(64);
+
+	/**
+	 * this is the root of the cache; each jar gets its own subdirectory.
+	 */
+	private final File cacheDir;
+
+	public CachingJniExtractor(final Class<?> libraryJarClass)
+		throws IOException
+	{
+		this(libraryJarClass, getDefaultCacheDir());
+	}
+
+	public CachingJniExtractor(final Class<?> libraryJarClass,
+		final File cacheDir) throws IOException
+	{
+		super(libraryJarClass);
+
+		this.cacheDir = cacheDir;
+		// Order of operations is such that we do not error if we are racing with
+		// another process to create the directory.
+		if (cacheDir.equals(getUserCacheDir())) PrivateDirectory.create(cacheDir);
+		else cacheDir.mkdirs();
+		if (!cacheDir.isDirectory()) {
+			throw new IOException(
+				"Unable to create native library cache directory " + cacheDir);
+		}
+		if (cacheDir.equals(getUserCacheDir()) &&
+			!PrivateDirectory.create(cacheDir))
+		{
+			throw new IOException("The native library cache directory " +
+				cacheDir + " is not private; set " + CACHE_DIR + " to use another one");
+		}
+	}
+
+	/**
+	 * @return the cache directory configured by the
+	 *         {@code org.scijava.nativelib.cacheDir} system property, or the
+	 *         current user's one below the {@link #getExtractionRoot()
+	 *         extraction root}
+	 */
+	public static File getDefaultCacheDir() {
+		final String dir = System.getProperty(CACHE_DIR);
+		if (dir != null && dir.length() > 0) return new File(dir);
+		return getUserCacheDir();
+	}
+
+	private static File getUserCacheDir() {
+		return PrivateDirectory.pathForUser(getExtractionRoot(), CACHE_DIR_NAME);
+	}
+
+	@Override
+	public File getJniDir() {
+		return cacheDir;
+	}
+
+	@Override
+	public File getNativeDir() {
+		return cacheDir;
+	}
+
+	@Override
+	File extractResource(final File dir, final URL resource,
+		final String outputName) throws IOException
+	{
+		// with a build-time index, neither the jar nor the file needs to be read
+		final NativeIndex.Entry indexed = NativeIndex.getEntry(resource);
+		final File bundleDir = new File(cacheDir, indexed != null
+			? indexed.bundleKey : getBundleKey(resource));
+		bundleDir.mkdirs();
+		if (!bundleDir.isDirectory()) {
+			throw new IOException(
+				"Unable to create native library cache directory " + bundleDir);
+		}
+
+		final File outfile = new File(bundleDir, outputName);
+		final Object event = NativeEvents.EXTRACT.begin();
+		String outcome = "failed";
+		try {
+			outcome = extractResource(resource, indexed, outfile);
+			return outfile;
+		}
+		catch (final IOException e) {
+			outcome = NativeEvents.failed(e);
+			throw e;
+		}
+		finally {
+			if (event != null) {
+				NativeEvents.EXTRACT.commit(event, outputName, resource, outfile,
+					outfile.length(), outcome);
+			}
+		}
+	}
+
+	/**
+	 * Brings the cached copy of a resource up to date.
+	 *
+	 * @return whether the file was "cached" or "extracted"
+	 */
+	private String extractResource(final URL resource,
+		final NativeIndex.Entry indexed, final File outfile) throws IOException
+	{
+		final long[] expected = indexed != null ? new long[] { indexed.size, -1 }
+			: getSizeAndTime(resource, outfile.getName());
+		if (isCurrent(outfile, expected, indexed)) {
+			LOGGER.debug("Using cached '" + outfile.getAbsolutePath() + "'");
+			NativeMetrics.cacheHit(outfile);
+			return "cached";
+		}
+
+		// only one thread of all processes sharing the cache writes a library;
+		// the others wait for it and then use its copy
+		synchronized (THREAD_LOCKS.get(outfile.getAbsolutePath())) {
+			final FileLock lock = lock(outfile);
+			try {
+				if (isCurrent(outfile, expected, indexed)) {
+					LOGGER.debug("Using '" + outfile.getAbsolutePath() +
+						"' written meanwhile");
+					NativeMetrics.cacheHit(outfile);
+					return "cached";
+				}
+				NativeMetrics.cacheMiss(outfile);
+				write(resource, outfile, expected, indexed);
+				return "extracted";
+			}
+			finally {
+				if (lock != null) lock.channel().close();
+			}
+		}
+	}
+
+	private void write(final URL resource, final File outfile,
+		final long[] expected, final NativeIndex.Entry indexed) throws IOException
+	{
+		LOGGER.debug("Extracting '" + resource + "' to '" +
+			outfile.getAbsolutePath() + "'");
+		// write to a temporary file first so that no other process ever sees a
+		// partially written library under the final name; processes which have
+		// loaded an older version keep using it even after the rename
+		final File tmpfile = File.createTempFile(outfile.getName(), ".tmp",
+			outfile.getParentFile());
+		try {
+			final MessageDigest digest = DigestRecord.newDigest();
+			writeResource(getResourceProvider(), resource, tmpfile, digest);
+			if (expected[1] > 0) tmpfile.setLastModified(expected[1]);
+			final DigestRecord record = DigestRecord.of(tmpfile, digest);
+			if (indexed != null && !indexed.sha256.equals(record.sha256)) {
+				throw new IOException("Contents of " + resource +
+					" do not match the digest in its index");
+			}
+			// a record describing the new file does not match the old one, so
+			// it is safe to write it first
+			record.write(outfile);
+			if (!tmpfile.renameTo(outfile)) {
+				if (isCurrent(outfile, expected, indexed)) {
+					// another process got there first
+					return;
+				}
+				outfile.delete();
+				if (!tmpfile.renameTo(outfile)) {
+					throw new IOException("Unable to move " + tmpfile + " to " +
+						outfile);
+				}
+			}
+		}
+		finally {
+			if (tmpfile.exists()) tmpfile.delete();
+		}
+	}
+
+	/**
+	 * Takes an exclusive lock on a {@code .lock} file next to the given file,
+	 * waiting for other processes to release it. The lock file is never
+	 * deleted, so that all processes always lock the same file.
+	 *
+	 * @return the lock, or null if the file system does not support locking
+	 */
+	private static FileLock lock(final File file) {
+		final File lockFile = new File(file.getParentFile(), file.getName() +
+			LOCK_SUFFIX);
+		FileChannel channel = null;
+		try {
+			channel = new RandomAccessFile(lockFile, "rw").getChannel();
+			return channel.lock();
+		}
+		catch (final IOException e) {
+			LOGGER.debug("Cannot lock " + lockFile + ", extracting without lock", e);
+			if (channel != null) {
+				try {
+					channel.close();
+				}
+				catch (final IOException e2) {
+					// ignore
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Checks whether a cached file matches the size and modification time (at
+	 * second granularity) of the resource it was extracted from. Unknown values
+	 * are not compared, but at least one of them must be known. The file must
+	 * also match the {@link DigestRecord} written along with it, and the
+	 * recorded digest the index, if there is one.
+	 */
+	private static boolean isCurrent(final File file, final long[] expected,
+		final NativeIndex.Entry indexed) throws IOException
+	{
+		if (expected[0] < 0 && expected[1] <= 0 || !file.isFile()) return false;
+		if (expected[0] >= 0 && file.length() != expected[0]) return false;
+		if (expected[1] > 0 && file.lastModified() / 1000 != expected[1] / 1000) {
+			return false;
+		}
+		final DigestRecord record = DigestRecord.read(file);
+		if (record == null || indexed != null &&
+			!indexed.sha256.equals(record.sha256))
+		{
+			return false;
+		}
+		if (!record.matches(file)) {
+			// also seen while another process replaces the file
+			LOGGER.debug("'" + file.getAbsolutePath() +
+				"' does not match its digest record");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Determines the size and modification time of a resource, without reading
+	 * its contents. Unknown values are reported as -1.
+	 */
+	private static long[] getSizeAndTime(final URL resource,
+		final String outputName) throws IOException
+	{
+		final long[] sizeAndTime = getSizeAndTime(resource);
+		// the size of a compressed resource says nothing about the library
+		if (isCompressed(resource, outputName)) sizeAndTime[0] = -1;
+		return sizeAndTime;
+	}
+
+	private static long[] getSizeAndTime(final URL resource) throws IOException {
+		if ("file".equals(resource.getProtocol())) {
+			final File file = ZipEntryLocator.toFile(resource.toString());
+			if (file != null) {
+				return new long[] { file.length(), file.lastModified() };
+			}
+		}
+		final URLConnection connection = resource.openConnection();
+		if (connection instanceof JarURLConnection) {
+			final JarEntry entry = ((JarURLConnection) connection).getJarEntry();
+			if (entry != null) return new long[] { entry.getSize(), entry.getTime() };
+		}
+		return new long[] { connection.getContentLength(),
+			connection.getLastModified() };
+	}
+
+	/**
+	 * Computes the name of the cache subdirectory for a resource. For resources
+	 * inside a jar, the key covers the jar's location, size and modification
+	 * time, so that a new version of the jar never shares a directory with an
+	 * old one. For plain files it is the location of the containing directory.
+	 */
+	static String getBundleKey(final URL resource) {
+		final String url = resource.toString();
+		final int separator = url.lastIndexOf("!/");
+		String identity;
+		if (separator >= 0) {
+			final String container = url.substring(url.indexOf(':') + 1, separator);
+			identity = container;
+			if (container.startsWith("file:")) {
+				final File jar = ZipEntryLocator.toFile(container);
+				if (jar != null) {
+					identity += ":" + jar.length() + ":" + jar.lastModified();
+				}
+			}
+		}
+		else {
+			identity = url.substring(0, url.lastIndexOf('/') + 1);
+		}
+		return hex(identity);
+	}
+
+	private static String hex(final String identity) {
+		try {
+			final byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+				identity.getBytes("UTF-8"));
+			return NativeIndex.hex(digest).substring(0, 32);
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.scijava.nativelib.NativeLibraryUtil.Architecture;
+
+/**
+ * Picks the library variants the CPU can run, from the feature flags the
+ * Linux kernel reports in {@code /proc/cpuinfo}.
+ * <p>
+ * Variants are subdirectories of a platform directory, e.g.
+ * {@code natives/linux_64/avx2/}, holding builds for newer instruction sets.
+ * The baseline build stays in the platform directory itself.
+ */
+final class CpuFeatures {
+
+	/** overrides the detected variants with a comma-separated list */
+	static final String VARIANTS = "org.scijava.nativelib.cpuVariants";
+
+	private static final File CPUINFO = new File("/proc/cpuinfo");
+
+	/** the x86-64-v4 subset of AVX-512 */
+	private static final List<String> AVX512 = Arrays.asList("avx512f",
+		"avx512bw", "avx512cd", "avx512dq", "avx512vl");
+
+	/** the x86-64-v3 additions */
+	private static final List<String> AVX2 = Arrays.asList("avx", "avx2",
+		"bmi1", "bmi2", "fma");
+
+	private CpuFeatures() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * @return the variant directories (e.g. {@code avx2/}) for this machine,
+	 *         best first, as given by the
+	 *         {@code org.scijava.nativelib.cpuVariants} property or detected
+	 */
+	static List<String> detectVariants(final Architecture architecture) {
+		final String override = System.getProperty(VARIANTS);
+		if (override != null) return parseVariants(override);
+		if (!CPUINFO.canRead()) return Collections.emptyList();
+		try {
+			return getVariants(architecture, readFlags(CPUINFO));
+		}
+		catch (final IOException e) {
+			return Collections.emptyList();
+		}
+	}
+
+	/**
+	 * @param list comma-separated variant names, e.g. {@code avx2,sse4}
+	 * @return the variant directories
+	 */
+	static List<String> parseVariants(final String list) {
+		final List<String> variants = new ArrayList<String>();
+		for (String variant : list.split(",")) {
+			variant = variant.trim();
+			if (variant.length() == 0) continue;
+			variants.add(variant.endsWith(NativeLibraryUtil.DELIM) ? variant
+				: variant + NativeLibraryUtil.DELIM);
+		}
+		return Collections.unmodifiableList(variants);
+	}
+
+	/**
+	 * @return the variant directories supported by the given CPU flags, best
+	 *         first
+	 */
+	static List<String> getVariants(final Architecture architecture,
+		final Set<String> flags)
+	{
+		final List<String> variants = new ArrayList<String>();
+		switch (architecture) {
+			case LINUX_64:
+				if (flags.containsAll(AVX512) && flags.containsAll(AVX2)) {
+					variants.add("avx512/");
+				}
+				if (flags.containsAll(AVX2)) variants.add("avx2/");
+				break;
+			case LINUX_ARM:
+			case LINUX_ARM64:
+				// 64-bit kernels call it asimd
+				if (flags.contains("neon") || flags.contains("asimd")) {
+					variants.add("neon/");
+				}
+				break;
+			default:
+				break;
+		}
+		return Collections.unmodifiableList(variants);
+	}
+
+	/**
+	 * Reads the feature flags of the first processor listed in a cpuinfo file:
+	 * the {@code flags} line on x86, the {@code Features} line on ARM.
+	 */
+	static Set<String> readFlags(final File cpuinfo) throws IOException {
+		final Set<String> flags = new HashSet<String>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+			new FileInputStream(cpuinfo), "US-ASCII"));
+		try {
+			for (String line; (line = reader.readLine()) != null;) {
+				final int colon = line.indexOf(':');
+				if (colon < 0) continue;
+				final String key = line.substring(0, colon).trim();
+				if (!key.equals("flags") && !key.equals("Features")) continue;
+				for (final String flag : line.substring(colon + 1).trim().split("\\s+")) {
+					flags.add(flag);
+				}
+				break;
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return flags;
+	}
+}
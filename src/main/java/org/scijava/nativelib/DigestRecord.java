@@ -0,0 +1,210 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Size, modification time and SHA-256 of an extracted library, as recorded
+ * next to it in a {@code .sha256} file when it was written.
+ * <p>
+ * The digest is computed while the library is extracted, so recording it costs
+ * no extra pass over the file. Before an existing file is used again, its size
+ * and modification time are compared with the record, which catches truncated
+ * and rewritten files without reading them; the digest itself is compared with
+ * the {@link NativeIndex} where there is one. Since whoever can replace a
+ * library can also replace its record, the file is hashed as well: once per
+ * virtual machine, or before every use if the
+ * {@code org.scijava.nativelib.verifyDigest} system property is set.
+ */
+final class DigestRecord {
+
+	static final String SUFFIX = ".sha256";
+	static final String VERIFY_DIGEST = "org.scijava.nativelib.verifyDigest";
+
+	/** size, time and digest of the libraries hashed so far, by path */
+	private static final Map<String, String> VERIFIED =
+		Collections.synchronizedMap(new HashMap<String, String>());
+
+	final long size;
+	final long lastModified;
+	final String sha256;
+
+	DigestRecord(final long size, final long lastModified, final String sha256) {
+		this.size = size;
+		this.lastModified = lastModified;
+		this.sha256 = sha256;
+	}
+
+	/**
+	 * @return a new SHA-256 digest, to be passed to
+	 *         {@link BaseJniExtractor#writeResource(java.net.URL, File, MessageDigest)}
+	 */
+	static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * @return the record of a library as it is now, with the given digest
+	 */
+	static DigestRecord of(final File library, final MessageDigest digest) {
+		return new DigestRecord(library.length(), library.lastModified(),
+			NativeIndex.hex(digest.digest()));
+	}
+
+	/**
+	 * @return the record stored next to a library, or null if there is none or
+	 *         it cannot be read
+	 */
+	static DigestRecord read(final File library) {
+		final File file = recordFile(library);
+		if (!file.isFile()) return null;
+		try {
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "US-ASCII"));
+			try {
+				final String line = reader.readLine();
+				final String[] fields = line == null ? null : line.split(" ");
+				if (fields == null || fields.length != 3) return null;
+				return new DigestRecord(Long.parseLong(fields[0]), Long.parseLong(
+					fields[1]), fields[2]);
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (final IOException e) {
+			return null;
+		}
+		catch (final NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Stores the record next to a library. It is written to a temporary file
+	 * first, so that readers never see half a record.
+	 */
+	void write(final File library) throws IOException {
+		final File file = recordFile(library);
+		final File tmpfile = File.createTempFile(file.getName(), ".tmp", file
+			.getParentFile());
+		try {
+			final Writer writer = new OutputStreamWriter(new FileOutputStream(
+				tmpfile), "US-ASCII");
+			try {
+				writer.write(size + " " + lastModified + " " + sha256 + "\n");
+			}
+			finally {
+				writer.close();
+			}
+			if (!tmpfile.renameTo(file)) {
+				file.delete();
+				if (!tmpfile.renameTo(file)) {
+					throw new IOException("Unable to move " + tmpfile + " to " + file);
+				}
+			}
+		}
+		finally {
+			if (tmpfile.exists()) tmpfile.delete();
+		}
+	}
+
+	/**
+	 * Checks a library against the record: its size and modification time,
+	 * and its contents (see {@link #verify(File, String)}, or every time if the
+	 * {@code org.scijava.nativelib.verifyDigest} system property is set).
+	 */
+	boolean matches(final File library) throws IOException {
+		if (library.length() != size || library.lastModified() != lastModified) {
+			return false;
+		}
+		if (Boolean.getBoolean(VERIFY_DIGEST)) return sha256.equals(hash(library));
+		return verify(library, sha256);
+	}
+
+	/**
+	 * Checks that a library's contents have the given SHA-256. A library is
+	 * hashed once per virtual machine, and again only after its size or
+	 * modification time has changed.
+	 */
+	static boolean verify(final File library, final String sha256)
+		throws IOException
+	{
+		final String path = library.getAbsolutePath();
+		// taken before hashing, so that a change meanwhile is noticed next time
+		final String state =
+			library.length() + " " + library.lastModified() + " " + sha256;
+		if (state.equals(VERIFIED.get(path))) return true;
+		if (!sha256.equals(hash(library))) return false;
+		VERIFIED.put(path, state);
+		return true;
+	}
+
+	/**
+	 * @return the SHA-256 of a file's contents
+	 */
+	static String hash(final File file) throws IOException {
+		final MessageDigest digest = newDigest();
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final byte[] buffer = new byte[65536];
+			for (int len; (len = in.read(buffer)) > 0;) {
+				digest.update(buffer, 0, len);
+			}
+		}
+		finally {
+			in.close();
+		}
+		return NativeIndex.hex(digest.digest());
+	}
+
+	private static File recordFile(final File library) {
+		return new File(library.getParentFile(), library.getName() + SUFFIX);
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deletes the files of a directory once its owner is closed or, failing that,
+ * becomes unreachable.
+ * <p>
+ * Unlike a finalizer, a phantom reference neither keeps the owner around for
+ * an extra garbage collection cycle nor runs on the shared finalizer thread.
+ * No thread waits for the references either: the cleanups of unreachable
+ * owners are run whenever a directory is registered or cleaned up, so that
+ * nothing of this class outlives an undeployed webapp's class loader because
+ * some owner (e.g. the NativeLoader's extractor) is never released.
+ */
+final class DirectoryCleaner {
+
+	private static final ReferenceQueue<Object> QUEUE =
+		new ReferenceQueue<Object>();
+
+	/** keeps the references reachable until they are processed */
+	private static final Set<Cleanup> PENDING =
+		Collections.synchronizedSet(new HashSet<Cleanup>());
+
+	private DirectoryCleaner() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * @param owner the object whose unreachability triggers the cleanup
+	 * @param dir the directory to delete, with the files in it
+	 * @return the cleanup, to be run early when the owner is closed
+	 */
+	static Cleanup register(final Object owner, final File dir) {
+		expunge();
+		final Cleanup cleanup = new Cleanup(owner, dir);
+		PENDING.add(cleanup);
+		return cleanup;
+	}
+
+	/**
+	 * Runs the cleanups of the owners which have become unreachable so far.
+	 */
+	static void expunge() {
+		for (Cleanup cleanup; (cleanup = (Cleanup) QUEUE.poll()) != null;) {
+			cleanup.delete();
+		}
+	}
+
+	/**
+	 * @return the number of cleanups which have not run yet
+	 */
+	static int countPending() {
+		return PENDING.size();
+	}
+
+	static final class Cleanup extends PhantomReference<Object> {
+
+		private final File dir;
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		private Cleanup(final Object owner, final File dir) {
+			super(owner, QUEUE);
+			this.dir = dir;
+		}
+
+		/**
+		 * Deletes the directory, unless that happened already, together with
+		 * those of owners which have become unreachable meanwhile.
+		 */
+		void run() {
+			delete();
+			expunge();
+		}
+
+		private void delete() {
+			if (!done.compareAndSet(false, true)) return;
+			clear();
+			PENDING.remove(this);
+			final File[] files = dir.listFiles();
+			if (files != null) {
+				for (final File file : files) {
+					file.delete();
+				}
+			}
+			dir.delete();
+		}
+
+		boolean isDone() {
+			return done.get();
+		}
+	}
+}
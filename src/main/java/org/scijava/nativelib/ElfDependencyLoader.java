@@ -0,0 +1,251 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads a set of extracted libraries in dependency order.
+ * <p>
+ * The {@code DT_NEEDED} entries of ELF libraries are matched against the file
+ * names and sonames of the other libraries in the set, so that each library is
+ * loaded only after the libraries it needs. Libraries which do not depend on
+ * each other are loaded concurrently. Files which are not ELF libraries (e.g.
+ * on Windows or OS X) carry no dependency information; they are loaded one
+ * after another, in the given order.
+ */
+public class ElfDependencyLoader {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.ElfDependencyLoader");
+
+	private final ExecutorService executor;
+
+	/**
+	 * @param executor the executor to load libraries on, or null to load them
+	 *          all on the calling thread; libraries it rejects are loaded on
+	 *          the thread which scheduled them
+	 */
+	public ElfDependencyLoader(final ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Loads the given libraries with {@link System#load(String)}, each after
+	 * the libraries of the set it depends on, and waits until all of them are
+	 * loaded. A library whose dependency fails to load is not loaded either.
+	 *
+	 * @param libraries the libraries to load
+	 * @throws IOException if the libraries cannot be read, their dependencies
+	 *           are cyclic, or some of them fail to load
+	 */
+	public void load(final List<File> libraries) throws IOException {
+		final List<Node> nodes = buildGraph(libraries);
+		if (nodes.isEmpty()) return;
+		checkAcyclic(nodes);
+
+		final CountDownLatch done = new CountDownLatch(nodes.size());
+		for (final Node node : nodes) {
+			if (node.remaining.get() == 0) schedule(node, done);
+		}
+		try {
+			done.await();
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(
+				"Interrupted while loading native libraries");
+		}
+
+		final StringBuilder failures = new StringBuilder();
+		Throwable cause = null;
+		for (final Node node : nodes) {
+			if (node.failure == null) continue;
+			if (cause == null) cause = node.failure;
+			failures.append("\n\t").append(node.file.getName()).append(": ")
+				.append(node.failure.getMessage());
+		}
+		if (cause != null) {
+			throw new IOException("Couldn't load native libraries:" + failures,
+				cause);
+		}
+	}
+
+	private static List<Node> buildGraph(final List<File> libraries)
+		throws IOException
+	{
+		final List<Node> nodes = new ArrayList<Node>();
+		final Map<String, Node> byName = new HashMap<String, Node>();
+		for (final File file : libraries) {
+			final Node node = new Node(file, ElfDynamicSection.read(file));
+			nodes.add(node);
+			byName.put(file.getName(), node);
+			if (node.elf != null && node.elf.getSoname() != null) {
+				byName.put(node.elf.getSoname(), node);
+			}
+		}
+
+		Node previous = null;
+		for (final Node node : nodes) {
+			if (node.elf == null) {
+				// no dependency information: keep the given order
+				if (previous != null) node.dependsOn(previous);
+				previous = node;
+				continue;
+			}
+			for (final String needed : node.elf.getNeeded()) {
+				final Node dependency = byName.get(needed);
+				// anything else is left to the dynamic linker
+				if (dependency != null && dependency != node) {
+					node.dependsOn(dependency);
+				}
+			}
+		}
+		return nodes;
+	}
+
+	private static void checkAcyclic(final List<Node> nodes) throws IOException {
+		final Map<Node, Integer> remaining = new HashMap<Node, Integer>();
+		final LinkedList<Node> ready = new LinkedList<Node>();
+		for (final Node node : nodes) {
+			remaining.put(node, node.dependencies.size());
+			if (node.dependencies.isEmpty()) ready.add(node);
+		}
+		int sorted = 0;
+		while (!ready.isEmpty()) {
+			final Node node = ready.removeFirst();
+			sorted++;
+			for (final Node dependent : node.dependents) {
+				final int count = remaining.get(dependent) - 1;
+				remaining.put(dependent, count);
+				if (count == 0) ready.add(dependent);
+			}
+		}
+		if (sorted == nodes.size()) return;
+
+		final StringBuilder cycle = new StringBuilder();
+		for (final Node node : nodes) {
+			if (remaining.get(node) > 0) cycle.append(' ').append(node.file.getName());
+		}
+		throw new IOException("Cyclic dependencies between native libraries:" +
+			cycle);
+	}
+
+	private void schedule(final Node node, final CountDownLatch done) {
+		final Runnable task = new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					loadNode(node);
+				}
+				finally {
+					done.countDown();
+					for (final Node dependent : node.dependents) {
+						if (dependent.remaining.decrementAndGet() == 0) {
+							schedule(dependent, done);
+						}
+					}
+				}
+			}
+		};
+		if (executor == null) {
+			task.run();
+			return;
+		}
+		try {
+			executor.execute(task);
+		}
+		catch (final RejectedExecutionException e) {
+			// e.g. the executor was shut down meanwhile: the load must still be
+			// counted, or load() would wait forever
+			LOGGER.debug("Loading " + node.file + " on the current thread", e);
+			task.run();
+		}
+	}
+
+	private static void loadNode(final Node node) {
+		for (final Node dependency : node.dependencies) {
+			if (dependency.failure != null) {
+				node.failure = new IOException("dependency " +
+					dependency.file.getName() + " failed to load");
+				return;
+			}
+		}
+		try {
+			LOGGER.debug("Loading " + node.file);
+			NativeLibraryUtil.load(node.file.getAbsolutePath());
+		}
+		catch (final UnsatisfiedLinkError e) {
+			node.failure = e;
+		}
+		catch (final SecurityException e) {
+			node.failure = e;
+		}
+	}
+
+	private static final class Node {
+
+		final File file;
+		final ElfDynamicSection elf;
+		final List<Node> dependencies = new ArrayList<Node>();
+		final List<Node> dependents = new ArrayList<Node>();
+		/** number of dependencies which have not been handled yet */
+		final AtomicInteger remaining = new AtomicInteger();
+		volatile Throwable failure;
+
+		Node(final File file, final ElfDynamicSection elf) {
+			this.file = file;
+			this.elf = elf;
+		}
+
+		void dependsOn(final Node dependency) {
+			if (dependencies.contains(dependency)) return;
+			dependencies.add(dependency);
+			dependency.dependents.add(this);
+			remaining.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reads the dynamic section of an ELF shared library, i.e. its soname and the
+ * names of the libraries it needs (its {@code DT_NEEDED} entries).
+ * <p>
+ * Only section headers are used; a library without them (or a file which is
+ * not ELF at all) is reported as having no dependencies.
+ */
+final class ElfDynamicSection {
+
+	private static final int SHT_DYNAMIC = 6;
+	private static final long DT_NULL = 0;
+	private static final long DT_NEEDED = 1;
+	private static final long DT_SONAME = 14;
+	/** sizes of a section header and of a dynamic entry, in ELF32 and ELF64 */
+	private static final int SHDR_SIZE_32 = 40;
+	private static final int SHDR_SIZE_64 = 64;
+	private static final int DYN_SIZE_32 = 8;
+	private static final int DYN_SIZE_64 = 16;
+
+	private final String soname;
+	private final List<String> needed;
+
+	private ElfDynamicSection(final String soname, final List<String> needed) {
+		this.soname = soname;
+		this.needed = needed;
+	}
+
+	/**
+	 * @return the soname of the library, or null if it has none
+	 */
+	String getSoname() {
+		return soname;
+	}
+
+	/**
+	 * @return the names of the libraries the library depends on
+	 */
+	List<String> getNeeded() {
+		return needed;
+	}
+
+	/**
+	 * @param file a shared library
+	 * @return the dynamic section of the library, or null if it is not an ELF
+	 *         file with a dynamic section
+	 * @throws IOException if the file cannot be read, or its headers are
+	 *           malformed
+	 */
+	static ElfDynamicSection read(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer ident = read(channel, 0, 16, ByteOrder.LITTLE_ENDIAN);
+			if (ident == null || ident.getInt(0) != 0x464c457f) return null;
+			final boolean is64 = ident.get(4) == 2;
+			final ByteOrder order =
+				ident.get(5) == 2 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+
+			final ByteBuffer header = read(channel, 0, is64 ? 64 : 52, order);
+			if (header == null) return null;
+			final long shoff =
+				is64 ? header.getLong(0x28) : header.getInt(0x20) & 0xffffffffL;
+			final int shentsize = header.getShort(is64 ? 0x3a : 0x2e) & 0xffff;
+			final int shnum = header.getShort(is64 ? 0x3c : 0x30) & 0xffff;
+			if (shoff == 0 || shnum == 0) return null;
+			if (shentsize < (is64 ? SHDR_SIZE_64 : SHDR_SIZE_32)) {
+				throw new IOException("Invalid section header size " + shentsize +
+					" in " + file);
+			}
+			final ByteBuffer sections =
+				read(channel, shoff, shentsize * shnum, order);
+			if (sections == null) return null;
+
+			for (int i = 0; i < shnum; i++) {
+				final int section = i * shentsize;
+				if (sections.getInt(section + 4) != SHT_DYNAMIC) continue;
+				final long offset = offset(sections, section, is64);
+				final long size = size(sections, section, is64);
+				final int link = sections.getInt(section + (is64 ? 0x28 : 0x18));
+				if (link < 0 || link >= shnum) return null;
+				final int strtab = link * shentsize;
+				final ByteBuffer strings = read(channel,
+					offset(sections, strtab, is64), (int) size(sections, strtab, is64),
+					order);
+				final ByteBuffer dynamic = read(channel, offset, (int) size, order);
+				if (strings == null || dynamic == null) return null;
+				final long entsize = is64 ? sections.getLong(section + 0x38)
+					: sections.getInt(section + 0x24) & 0xffffffffL;
+				final long minimum = is64 ? DYN_SIZE_64 : DYN_SIZE_32;
+				// 0 means unspecified; larger entries are allowed, but not smaller
+				if (entsize != 0 && entsize < minimum || entsize > Integer.MAX_VALUE) {
+					throw new IOException("Invalid dynamic entry size " + entsize +
+						" in " + file);
+				}
+				return parse(dynamic, strings, is64,
+					entsize == 0 ? (int) minimum : (int) entsize);
+			}
+			return null;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	private static ElfDynamicSection parse(final ByteBuffer dynamic,
+		final ByteBuffer strings, final boolean is64, final int entrySize)
+	{
+		String soname = null;
+		final List<String> needed = new ArrayList<String>();
+		for (int pos = 0; pos + entrySize <= dynamic.capacity(); pos += entrySize) {
+			final long tag = is64 ? dynamic.getLong(pos) : dynamic.getInt(pos);
+			final long value = is64 ? dynamic.getLong(pos + 8)
+				: dynamic.getInt(pos + 4) & 0xffffffffL;
+			if (tag == DT_NULL) break;
+			if (tag == DT_NEEDED) needed.add(string(strings, value));
+			else if (tag == DT_SONAME) soname = string(strings, value);
+		}
+		return new ElfDynamicSection(soname, Collections.unmodifiableList(needed));
+	}
+
+	private static String string(final ByteBuffer strings, final long offset) {
+		final StringBuilder builder = new StringBuilder();
+		for (int i = (int) offset; i >= 0 && i < strings.capacity(); i++) {
+			final byte b = strings.get(i);
+			if (b == 0) break;
+			builder.append((char) (b & 0xff));
+		}
+		return builder.toString();
+	}
+
+	private static long offset(final ByteBuffer sections, final int section,
+		final boolean is64)
+	{
+		return is64 ? sections.getLong(section + 0x18)
+			: sections.getInt(section + 0x10) & 0xffffffffL;
+	}
+
+	private static long size(final ByteBuffer sections, final int section,
+		final boolean is64)
+	{
+		return is64 ? sections.getLong(section + 0x20)
+			: sections.getInt(section + 0x14) & 0xffffffffL;
+	}
+
+	private static ByteBuffer read(final FileChannel channel, final long offset,
+		final int length, final ByteOrder order) throws IOException
+	{
+		if (offset < 0 || length < 0 || offset + length > channel.size()) {
+			return null;
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.order(order);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) return null;
+		}
+		buffer.clear();
+		return buffer;
+	}
+}
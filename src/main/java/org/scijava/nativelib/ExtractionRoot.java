@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Chooses the directory below which libraries are extracted.
+ * <p>
+ * The candidates are given by the {@code org.scijava.nativelib.extractionRoot}
+ * system property as a comma-separated list, by default {@code /dev/shm}, so
+ * that libraries are written to and mapped from memory rather than a possibly
+ * slow or network-backed disk. The first candidate which exists, is writable,
+ * is not mounted {@code noexec} and has at least 64 MB free is used; if none
+ * qualifies, {@code java.io.tmpdir} is.
+ */
+final class ExtractionRoot {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.ExtractionRoot");
+
+	static final String EXTRACTION_ROOT = "org.scijava.nativelib.extractionRoot";
+	private static final String EXTRACTION_ROOT_DEFAULT = "/dev/shm";
+	static final long MIN_FREE_SPACE = 64L * 1024 * 1024;
+	private static final File MOUNTS = new File("/proc/mounts");
+
+	private static volatile File root;
+
+	private ExtractionRoot() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * @return the chosen extraction root, determined on the first call
+	 */
+	static File get() {
+		File result = root;
+		if (result == null) {
+			synchronized (ExtractionRoot.class) {
+				result = root;
+				if (result == null) {
+					final List<File> candidates = new ArrayList<File>();
+					for (final String path : System.getProperty(EXTRACTION_ROOT,
+						EXTRACTION_ROOT_DEFAULT).split(","))
+					{
+						if (path.trim().length() > 0) candidates.add(new File(path.trim()));
+					}
+					result = choose(candidates, new File(System.getProperty(
+						BaseJniExtractor.JAVA_TMPDIR, BaseJniExtractor.ALTR_TMPDIR)), MOUNTS);
+					LOGGER.debug("Extracting libraries below " + result);
+					root = result;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the first usable candidate, or the fallback
+	 */
+	static File choose(final List<File> candidates, final File fallback,
+		final File mounts)
+	{
+		for (final File candidate : candidates) {
+			final String problem = check(candidate, mounts);
+			if (problem == null) return candidate;
+			LOGGER.debug("Not extracting to " + candidate + ": " + problem);
+		}
+		return fallback;
+	}
+
+	/**
+	 * @return why libraries cannot be extracted to the directory, or null if
+	 *         they can
+	 */
+	static String check(final File dir, final File mounts) {
+		if (!dir.isDirectory()) return "not a directory";
+		if (!dir.canWrite()) return "not writable";
+		if (dir.getUsableSpace() < MIN_FREE_SPACE) return "less than " +
+			MIN_FREE_SPACE / 1024 / 1024 + " MB free";
+		try {
+			if (isNoExec(dir.getCanonicalPath(), mounts)) return "mounted noexec";
+		}
+		catch (final IOException e) {
+			return e.toString();
+		}
+		return null;
+	}
+
+	/**
+	 * Looks up the mount options of the file system holding a path. Where the
+	 * mount table cannot be read, execution is assumed to be allowed.
+	 */
+	private static boolean isNoExec(final String path, final File mounts)
+		throws IOException
+	{
+		if (!mounts.canRead()) return false;
+		String mountPoint = null;
+		String options = null;
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+			new FileInputStream(mounts), "UTF-8"));
+		try {
+			for (String line; (line = reader.readLine()) != null;) {
+				final String[] fields = line.split(" ");
+				if (fields.length < 4) continue;
+				// spaces and the like are octal-escaped
+				final String point = fields[1].replace("\\040", " ");
+				if (!contains(point, path)) continue;
+				// the longest match wins, and of equal ones the last mounted
+				if (mountPoint == null || point.length() >= mountPoint.length()) {
+					mountPoint = point;
+					options = fields[3];
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		if (options == null) return false;
+		for (final String option : options.split(",")) {
+			if (option.equals("noexec")) return true;
+		}
+		return false;
+	}
+
+	private static boolean contains(final String mountPoint, final String path) {
+		return mountPoint.equals("/") || path.equals(mountPoint) ||
+			path.startsWith(mountPoint + "/");
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads resources from local jar files through {@link JarFile}s of its own,
+ * rather than through {@link java.net.JarURLConnection} and the JVM-wide cache
+ * of jar files behind it.
+ * <p>
+ * Each jar is opened once, on first use, and stays open until the provider is
+ * closed; entries are then looked up in the jar's central directory without
+ * reading the jar again. A jar which has changed on disk since it was opened
+ * is opened anew; the replaced jar file is closed once the entries which are
+ * still being read from it have been closed. Resources which are not entries of local jar files are read
+ * from their URL.
+ */
+public class JarResourceProvider implements ResourceProvider {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.JarResourceProvider");
+
+	private final Map<File, OpenJar> jars = new HashMap<File, OpenJar>();
+	private boolean closed;
+	/** number of jar files which have been opened but not yet closed */
+	private int openCount;
+
+	@Override
+	public ReadableByteChannel open(final URL resource) throws IOException {
+		final File jar = ZipEntryLocator.getJarFile(resource);
+		if (jar != null) {
+			final String path = resource.getPath();
+			final String name = decode(path.substring(path.indexOf("!/") + 2));
+			final OpenJar open = acquire(jar);
+			if (open != null) {
+				boolean reading = false;
+				try {
+					final ZipEntry entry = open.jarFile.getEntry(name);
+					if (entry != null) {
+						final InputStream in = open.jarFile.getInputStream(entry);
+						reading = true;
+						return Channels.newChannel(new EntryStream(in, open));
+					}
+				}
+				finally {
+					if (!reading) release(open);
+				}
+			}
+		}
+		return Channels.newChannel(resource.openStream());
+	}
+
+	/**
+	 * Closes all jar files opened so far. The provider may still be used
+	 * afterwards, but reads all resources from their URLs.
+	 */
+	@Override
+	public void close() throws IOException {
+		final List<OpenJar> open;
+		synchronized (jars) {
+			closed = true;
+			open = new ArrayList<OpenJar>(jars.values());
+			jars.clear();
+		}
+		IOException exception = null;
+		for (final OpenJar jar : open) {
+			try {
+				close(jar);
+			}
+			catch (final IOException e) {
+				exception = e;
+			}
+		}
+		if (exception != null) throw exception;
+	}
+
+	/**
+	 * @return the number of jar files which are open, including replaced ones
+	 *         which are still being read from
+	 */
+	int countOpenJars() {
+		synchronized (jars) {
+			return openCount;
+		}
+	}
+
+	/**
+	 * Opens a jar, or finds it open, for one more reader, who must
+	 * {@link #release} it when done.
+	 */
+	private OpenJar acquire(final File jar) {
+		synchronized (jars) {
+			if (closed) return null;
+			OpenJar open = jars.get(jar);
+			if (open == null || !open.isCurrent()) {
+				if (open != null) {
+					jars.remove(jar);
+					if (open.readers == 0) closeQuietly(open);
+				}
+				try {
+					open = new OpenJar(jar);
+				}
+				catch (final IOException e) {
+					LOGGER.debug("Cannot open " + jar, e);
+					return null;
+				}
+				openCount++;
+				jars.put(jar, open);
+			}
+			open.readers++;
+			return open;
+		}
+	}
+
+	/** Closes a replaced jar file when its last reader is done. */
+	private void release(final OpenJar open) {
+		synchronized (jars) {
+			open.readers--;
+			if (open.readers == 0 && jars.get(open.file) != open) {
+				closeQuietly(open);
+			}
+		}
+	}
+
+	private void closeQuietly(final OpenJar open) {
+		try {
+			close(open);
+		}
+		catch (final IOException e) {
+			LOGGER.debug("Cannot close " + open.file, e);
+		}
+	}
+
+	private void close(final OpenJar open) throws IOException {
+		synchronized (jars) {
+			if (open.closed) return;
+			open.closed = true;
+			openCount--;
+		}
+		open.jarFile.close();
+	}
+
+	/**
+	 * Decodes the escaped characters of an entry name in a jar: URL.
+	 */
+	private static String decode(final String name) {
+		if (name.indexOf('%') < 0) return name;
+		try {
+			// '+' stands for itself in URL paths
+			return URLDecoder.decode(name.replace("+", "%2B"), "UTF-8");
+		}
+		catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class OpenJar {
+
+		private final File file;
+		private final JarFile jarFile;
+		private final long length;
+		private final long modified;
+		/** number of entries being read; guarded by the provider's jars */
+		private int readers;
+		private boolean closed;
+
+		OpenJar(final File file) throws IOException {
+			this.file = file;
+			length = file.length();
+			modified = file.lastModified();
+			jarFile = new JarFile(file);
+		}
+
+		boolean isCurrent() {
+			return file.length() == length && file.lastModified() == modified;
+		}
+	}
+
+	/** An entry being read, which releases its jar file when closed. */
+	private class EntryStream extends FilterInputStream {
+
+		private final OpenJar open;
+		private boolean released;
+
+		EntryStream(final InputStream in, final OpenJar open) {
+			super(in);
+			this.open = open;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			}
+			finally {
+				if (!released) {
+					released = true;
+					release(open);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+
+/**
+ * The outcome of loading one library with
+ * {@link NativeLoader#loadLibraries(String...)}.
+ */
+public final class LoadResult {
+
+	private final String libraryName;
+	private final File file;
+	private final Throwable error;
+
+	LoadResult(final String libraryName, final File file,
+		final Throwable error)
+	{
+		this.libraryName = libraryName;
+		this.file = file;
+		this.error = error;
+	}
+
+	/**
+	 * @return the platform-independent name of the library
+	 */
+	public String getLibraryName() {
+		return libraryName;
+	}
+
+	/**
+	 * @return whether the library is loaded
+	 */
+	public boolean isLoaded() {
+		return error == null;
+	}
+
+	/**
+	 * @return the file the library was loaded from by this call, or null if it
+	 *         was found on {@code java.library.path}, loaded before or not loaded
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return why the library could not be loaded, or null if it was
+	 */
+	public Throwable getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		if (error != null) return libraryName + ": " + error;
+		return libraryName + ": loaded" + (file != null ? " from " + file : "");
+	}
+}
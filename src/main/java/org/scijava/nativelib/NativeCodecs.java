@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The {@link NativeCodec}s known to the extractors.
+ * <p>
+ * Gzip is always available. Further codecs (e.g. for xz) are picked up from
+ * {@code META-INF/services/org.scijava.nativelib.NativeCodec} resources, or
+ * can be added with {@link #register(NativeCodec)}.
+ */
+public final class NativeCodecs {
+
+	private static final List<NativeCodec> CODECS = init();
+
+	private NativeCodecs() {
+		// prevent instantiation of utility class
+	}
+
+	private static List<NativeCodec> init() {
+		final List<NativeCodec> codecs = new CopyOnWriteArrayList<NativeCodec>();
+		codecs.add(new GzipCodec());
+		for (final NativeCodec codec : ServiceLoader.load(NativeCodec.class,
+			NativeCodecs.class.getClassLoader()))
+		{
+			codecs.add(codec);
+		}
+		return codecs;
+	}
+
+	/**
+	 * @param codec a codec to use for libraries with its suffix
+	 */
+	public static void register(final NativeCodec codec) {
+		CODECS.add(codec);
+	}
+
+	/**
+	 * @return the known codecs, in the order in which they are tried
+	 */
+	public static List<NativeCodec> getCodecs() {
+		return CODECS;
+	}
+
+	/**
+	 * @param name a file name or resource path
+	 * @return the codec for the name's suffix, or null if it is not compressed
+	 */
+	public static NativeCodec forName(final String name) {
+		for (final NativeCodec codec : CODECS) {
+			if (name.endsWith(codec.getSuffix())) return codec;
+		}
+		return null;
+	}
+
+	/**
+	 * @param name a file name or resource path
+	 * @return the name without the suffix of its codec, if any
+	 */
+	static String stripSuffix(final String name) {
+		final NativeCodec codec = forName(name);
+		return codec == null ? name : name.substring(0, name.length() -
+			codec.getSuffix().length());
+	}
+}
@@ -0,0 +1,278 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Java Flight Recorder events for the loader's file I/O.
+ * <p>
+ * The events are defined at runtime through {@code jdk.jfr.EventFactory},
+ * looked up by reflection, so that the loader still runs on Java versions
+ * without JFR. Each event records the library name, source URL, target path,
+ * byte count and outcome of an operation. {@link #begin()} returns null unless
+ * a recording has enabled the event, in which case nothing else is done.
+ * <p>
+ * Event types are only generated once a recording is running, so that
+ * nothing is spent on them otherwise; callers only compute the values to
+ * record if {@link #begin()} returned an event.
+ */
+final class NativeEvents {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.NativeEvents");
+
+	private static final String CATEGORY = "Native Library Loader";
+
+	private static final String[][] FIELDS = { { "libraryName", "Library Name" },
+		{ "source", "Source" }, { "target", "Target" }, { "bytes", "Bytes" },
+		{ "outcome", "Outcome" } };
+
+	/** the JFR methods, looked up when the first event type is created */
+	private static Method newEvent, isEnabled, begin, end, shouldCommit, set,
+			commit;
+
+	/**
+	 * jdk.jfr.FlightRecorder methods which tell cheaply whether anything is
+	 * being recorded, or null if JFR is not available
+	 */
+	private static final Method isInitialized, getFlightRecorder,
+			getRecordings, getState;
+
+	static {
+		Method initialized = null, recorder = null, recordings = null,
+				state = null;
+		try {
+			final Class<?> flightRecorder = Class.forName("jdk.jfr.FlightRecorder");
+			initialized = flightRecorder.getMethod("isInitialized");
+			recorder = flightRecorder.getMethod("getFlightRecorder");
+			recordings = flightRecorder.getMethod("getRecordings");
+			state = Class.forName("jdk.jfr.Recording").getMethod("getState");
+		}
+		catch (final Throwable t) {
+			// no JFR on this runtime
+			initialized = null;
+		}
+		isInitialized = initialized;
+		getFlightRecorder = recorder;
+		getRecordings = recordings;
+		getState = state;
+	}
+
+	static final NativeEvents EXTRACT = new NativeEvents(
+		"org.scijava.nativelib.Extract", "Extract Native Library",
+		"A library was copied from the class path to a file");
+	static final NativeEvents EXTRACT_REGISTERED = new NativeEvents(
+		"org.scijava.nativelib.ExtractRegistered",
+		"Extract Registered Native Libraries",
+		"The libraries listed in AUTOEXTRACT.LIST resources were extracted");
+	static final NativeEvents DELETE_LEFTOVERS = new NativeEvents(
+		"org.scijava.nativelib.DeleteLeftovers",
+		"Delete Leftover Native Libraries",
+		"Libraries extracted by earlier runs were cleaned up");
+	static final NativeEvents LOAD = new NativeEvents(
+		"org.scijava.nativelib.Load", "Load Native Library",
+		"An extracted library was linked with System.load");
+
+	private final String name;
+	private final String label;
+	private final String description;
+
+	/**
+	 * the jdk.jfr.EventFactory and its event type, created when the event is
+	 * first begun during a recording
+	 */
+	private volatile Object factory;
+	private volatile Object eventType;
+	private volatile boolean unavailable;
+
+	private NativeEvents(final String name, final String label,
+		final String description)
+	{
+		this.name = name;
+		this.label = label;
+		this.description = description;
+	}
+
+	/**
+	 * @return whether a flight recording is running; does not start the flight
+	 *         recorder if nothing has used it yet
+	 */
+	private static boolean isRecording() {
+		if (isInitialized == null) return false;
+		try {
+			if (!(Boolean) isInitialized.invoke(null)) return false;
+			final List<?> recordings =
+				(List<?>) getRecordings.invoke(getFlightRecorder.invoke(null));
+			for (final Object recording : recordings) {
+				if ("RUNNING".equals(String.valueOf(getState.invoke(recording)))) {
+					return true;
+				}
+			}
+		}
+		catch (final Exception e) {
+			LOGGER.debug("Cannot query the flight recorder", e);
+		}
+		return false;
+	}
+
+	/**
+	 * Defines the event type on first use, since generating it is expensive.
+	 *
+	 * @return the event type, or null if it cannot be defined
+	 */
+	private Object getEventType() {
+		if (eventType != null || unavailable) return eventType;
+		synchronized (this) {
+			if (eventType == null && !unavailable) {
+				try {
+					final Object f = createFactory(name, label, description);
+					final Object type =
+						f.getClass().getMethod("getEventType").invoke(f);
+					factory = f;
+					eventType = type;
+				}
+				catch (final Throwable t) {
+					// not allowed to register events
+					LOGGER.debug("Flight recorder events are not available", t);
+					unavailable = true;
+				}
+			}
+			return eventType;
+		}
+	}
+
+	private static Object createFactory(final String name, final String label,
+		final String description) throws Exception
+	{
+		final Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+		final Class<?> annotationElement =
+			Class.forName("jdk.jfr.AnnotationElement");
+		final Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+		final Constructor<?> annotation =
+			annotationElement.getConstructor(Class.class, Object.class);
+		final Constructor<?> field = valueDescriptor.getConstructor(Class.class,
+			String.class, List.class);
+
+		final List<Object> annotations = Arrays.asList(
+			annotation.newInstance(Class.forName("jdk.jfr.Name"), name),
+			annotation.newInstance(Class.forName("jdk.jfr.Label"), label),
+			annotation.newInstance(Class.forName("jdk.jfr.Description"),
+				description),
+			annotation.newInstance(Class.forName("jdk.jfr.Category"),
+				new String[] { CATEGORY }));
+		final List<Object> fields = new ArrayList<Object>();
+		for (final String[] f : FIELDS) {
+			final Class<?> type = "bytes".equals(f[0]) ? long.class : String.class;
+			fields.add(field.newInstance(type, f[0], Arrays.asList(annotation
+				.newInstance(Class.forName("jdk.jfr.Label"), f[1]))));
+		}
+		final Object factory = factoryClass.getMethod("create", List.class,
+			List.class).invoke(null, annotations, fields);
+		initMethods(factoryClass);
+		return factory;
+	}
+
+	private static synchronized void initMethods(final Class<?> factoryClass)
+		throws Exception
+	{
+		if (commit != null) return;
+		final Class<?> event = Class.forName("jdk.jfr.Event");
+		newEvent = factoryClass.getMethod("newEvent");
+		isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+		begin = event.getMethod("begin");
+		end = event.getMethod("end");
+		shouldCommit = event.getMethod("shouldCommit");
+		set = event.getMethod("set", int.class, Object.class);
+		commit = event.getMethod("commit");
+	}
+
+	/**
+	 * Starts timing an event.
+	 *
+	 * @return the event, or null if it is not being recorded
+	 */
+	Object begin() {
+		if (!isRecording()) return null;
+		final Object type = getEventType();
+		if (type == null) return null;
+		try {
+			if (!(Boolean) isEnabled.invoke(type)) return null;
+			final Object event = newEvent.invoke(factory);
+			begin.invoke(event);
+			return event;
+		}
+		catch (final Exception e) {
+			LOGGER.debug("Cannot begin flight recorder event", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Ends an event and records it with the given values.
+	 *
+	 * @param event the result of {@link #begin()}; if null, nothing is done
+	 */
+	void commit(final Object event, final String libraryName,
+		final Object source, final Object target, final long bytes,
+		final String outcome)
+	{
+		if (event == null) return;
+		try {
+			end.invoke(event);
+			if (!(Boolean) shouldCommit.invoke(event)) return;
+			set.invoke(event, 0, libraryName);
+			set.invoke(event, 1, source == null ? null : source.toString());
+			set.invoke(event, 2, target == null ? null : target.toString());
+			set.invoke(event, 3, bytes);
+			set.invoke(event, 4, outcome);
+			commit.invoke(event);
+		}
+		catch (final Exception e) {
+			LOGGER.debug("Cannot commit flight recorder event", e);
+		}
+	}
+
+	/**
+	 * @param t what went wrong
+	 * @return the outcome to record for an operation which threw {@code t}
+	 */
+	static String failed(final Throwable t) {
+		return "failed: " + t;
+	}
+}
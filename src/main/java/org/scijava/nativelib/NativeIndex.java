@@ -0,0 +1,403 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Build-time index of the native libraries packaged in a jar.
+ * <p>
+ * The index is a small text resource, {@value #RESOURCE}, which lists the
+ * path, size, CRC-32 and SHA-256 of every library below {@code natives/} and
+ * {@code META-INF/lib/}. For compressed libraries, size and checksums are
+ * those of the decompressed library. It is generated when the jar is built by running this
+ * class on the directory the jar is packaged from, e.g. with the
+ * exec-maven-plugin in the {@code prepare-package} phase:
+ *
+ * <pre>
+ * java -cp native-lib-loader.jar org.scijava.nativelib.NativeIndex target/classes
+ * </pre>
+ * <p>
+ * At runtime, the indexes of a class loader are read once. Libraries listed in
+ * them are then resolved without asking the class loader, and the
+ * {@link CachingJniExtractor} can tell whether a cached copy is current from
+ * the recorded size, without opening the jar or hashing the file. The indexes
+ * are read again when a jar they come from has changed since; libraries which
+ * are no longer listed then, or which are gone, are looked up as usual.
+ */
+public final class NativeIndex {
+
+	/** the name of the index resource */
+	public static final String RESOURCE = "META-INF/native-lib-loader/INDEX.LIST";
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.NativeIndex");
+	private static final String HEADER =
+		"# native-lib-loader index: path size crc32 sha256";
+	private static final String[] ROOTS = { "natives", "META-INF/lib" };
+
+	private static final Map<ClassLoader, NativeIndex> INDEXES =
+		new WeakHashMap<ClassLoader, NativeIndex>();
+
+	private final WeakReference<ClassLoader> loader;
+
+	/** entries of the indexes visible to the class loader */
+	private volatile Entries entries;
+
+	private NativeIndex(final ClassLoader loader) {
+		this.loader = new WeakReference<ClassLoader>(loader);
+		entries = read(loader);
+	}
+
+	/**
+	 * Generates the index for the directory given as the only argument.
+	 *
+	 * @param args the root directory of the jar's contents
+	 * @throws IOException if the libraries cannot be read or the index written
+	 */
+	public static void main(final String... args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage: java " + NativeIndex.class.getName() +
+				" <directory>");
+			System.exit(1);
+		}
+		final File index = write(new File(args[0]));
+		System.out.println("Wrote " + index);
+	}
+
+	/**
+	 * Generates the index for a directory holding the contents of a jar.
+	 *
+	 * @param root the directory to index
+	 * @return the written index file
+	 * @throws IOException if the libraries cannot be read or the index written
+	 */
+	public static File write(final File root) throws IOException {
+		// sorted, so that builds are reproducible
+		final Map<String, File> libraries = new TreeMap<String, File>();
+		for (final String path : ROOTS) {
+			collect(new File(root, path), path + "/", libraries);
+		}
+
+		final File index = new File(root, RESOURCE);
+		index.getParentFile().mkdirs();
+		final Writer writer =
+			new OutputStreamWriter(new FileOutputStream(index), "UTF-8");
+		try {
+			writer.write(HEADER + "\n");
+			for (final Map.Entry<String, File> library : libraries.entrySet()) {
+				writer.write(describe(library.getKey(), library.getValue()) + "\n");
+			}
+		}
+		finally {
+			writer.close();
+		}
+		return index;
+	}
+
+	private static void collect(final File dir, final String prefix,
+		final Map<String, File> libraries)
+	{
+		final File[] files = dir.listFiles();
+		if (files == null) return;
+		for (final File file : files) {
+			if (file.isDirectory()) {
+				collect(file, prefix + file.getName() + "/", libraries);
+			}
+			else if (NativeResourceIndex.isIndexed(file.getName())) {
+				libraries.put(prefix + file.getName(), file);
+			}
+		}
+	}
+
+	private static String describe(final String path, final File file)
+		throws IOException
+	{
+		final CRC32 crc = new CRC32();
+		final MessageDigest sha256 = sha256();
+		long size = 0;
+		InputStream in = new FileInputStream(file);
+		try {
+			// compressed libraries are described by their decompressed contents
+			final NativeCodec codec = NativeCodecs.forName(file.getName());
+			if (codec != null) in = codec.decode(in);
+			final byte[] buffer = new byte[65536];
+			for (int len; (len = in.read(buffer)) > 0;) {
+				crc.update(buffer, 0, len);
+				sha256.update(buffer, 0, len);
+				size += len;
+			}
+		}
+		finally {
+			in.close();
+		}
+		return path + " " + size + " " + Long.toHexString(crc.getValue()) + " " +
+			hex(sha256.digest());
+	}
+
+	/**
+	 * @param loader the class loader whose indexes to read
+	 * @return the combined indexes visible to the class loader; read only once
+	 */
+	static NativeIndex forClassLoader(final ClassLoader loader) {
+		synchronized (INDEXES) {
+			NativeIndex index = INDEXES.get(loader);
+			if (index == null) {
+				index = new NativeIndex(loader);
+				INDEXES.put(loader, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * @param resource a resource URL, as returned by {@link #getResource}
+	 * @return the index entry of the resource, or null if it is not indexed
+	 */
+	static Entry getEntry(final URL resource) {
+		final String url = resource.toString();
+		synchronized (INDEXES) {
+			for (final NativeIndex index : INDEXES.values()) {
+				final Entry entry = index.entries.byURL.get(url);
+				if (entry != null && entry.isCurrent()) return entry;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param path the resource path, e.g. {@code natives/linux_64/libfoo.so}
+	 * @return the URL of the library, or null if no index lists it (anymore)
+	 */
+	URL getResource(final String path) {
+		Entry entry = entries.byPath.get(path);
+		if (entry == null) return null;
+		if (!entry.isCurrent()) {
+			entry = reread().byPath.get(path);
+			if (entry == null || !entry.isCurrent()) return null;
+		}
+		return entry.url;
+	}
+
+	/** Reads the indexes again, after a jar they come from has changed. */
+	private synchronized Entries reread() {
+		final ClassLoader classLoader = loader.get();
+		final Entries current = entries;
+		// another thread may have reread them already
+		if (classLoader == null || current.isCurrent()) return current;
+		entries = read(classLoader);
+		return entries;
+	}
+
+	private static Entries read(final ClassLoader loader) {
+		final Entries entries = new Entries();
+		try {
+			final Enumeration<URL> indexes = loader.getResources(RESOURCE);
+			while (indexes.hasMoreElements()) {
+				final URL index = indexes.nextElement();
+				try {
+					read(index, entries);
+				}
+				catch (final IOException e) {
+					LOGGER.debug("Could not read " + index, e);
+				}
+			}
+		}
+		catch (final IOException e) {
+			LOGGER.debug("Could not look up native library indexes", e);
+		}
+		return entries;
+	}
+
+	private static void read(final URL index, final Entries entries)
+		throws IOException
+	{
+		final String url = index.toString();
+		final String base = url.substring(0, url.length() - RESOURCE.length());
+		final MessageDigest digest = sha256();
+		final Map<String, Entry> read = new HashMap<String, Entry>();
+		// taken before reading, so that a later change is always noticed
+		final Source source = new Source(ZipEntryLocator.getJarFile(index));
+		final URLConnection connection = index.openConnection();
+		// a cached jar may be an older version of the file
+		connection.setUseCaches(false);
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+			connection.getInputStream(), "UTF-8"));
+		try {
+			for (String line; (line = reader.readLine()) != null;) {
+				digest.update(line.getBytes("UTF-8"));
+				if (line.startsWith("#") || line.trim().length() == 0) continue;
+				final String[] fields = line.trim().split(" ");
+				if (fields.length != 4) {
+					throw new IOException("Invalid line in " + index + ": " + line);
+				}
+				try {
+					final URL resource =
+						new URL(base + new URI(null, null, fields[0], null).getRawPath());
+					read.put(fields[0], new Entry(resource, Long.parseLong(fields[1]),
+						Long.parseLong(fields[2], 16), fields[3], source));
+				}
+				catch (final NumberFormatException e) {
+					throw new IOException("Invalid line in " + index + ": " + line);
+				}
+				catch (final URISyntaxException e) {
+					throw new IOException("Invalid line in " + index + ": " + line);
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+
+		// the libraries of one jar share a cache directory named after the index
+		final String bundleKey = hex(digest.digest()).substring(0, 32);
+		for (final Map.Entry<String, Entry> entry : read.entrySet()) {
+			entry.getValue().bundleKey = bundleKey;
+			// like the class loader, the first one wins
+			if (!entries.byPath.containsKey(entry.getKey())) {
+				entries.byPath.put(entry.getKey(), entry.getValue());
+				entries.byURL.put(entry.getValue().url.toString(), entry.getValue());
+			}
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static String hex(final byte[] bytes) {
+		final StringBuilder builder = new StringBuilder();
+		for (final byte b : bytes) {
+			builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+			builder.append(Character.forDigit(b & 0xf, 16));
+		}
+		return builder.toString();
+	}
+
+	/** The entries of the indexes visible to a class loader. */
+	private static final class Entries {
+
+		/** by resource path */
+		final Map<String, Entry> byPath = new HashMap<String, Entry>();
+		/** by resource URL */
+		final Map<String, Entry> byURL = new HashMap<String, Entry>();
+
+		boolean isCurrent() {
+			for (final Entry entry : byPath.values()) {
+				if (!entry.source.isCurrent()) return false;
+			}
+			return true;
+		}
+	}
+
+	/** The jar an index was read from, as it was at the time. */
+	private static final class Source {
+
+		/** the jar, or null if the index is not in a local jar */
+		final File jar;
+		final long length;
+		final long modified;
+
+		Source(final File jar) {
+			this.jar = jar;
+			length = jar == null ? 0 : jar.length();
+			modified = jar == null ? 0 : jar.lastModified();
+		}
+
+		boolean isCurrent() {
+			return jar == null ||
+				jar.length() == length && jar.lastModified() == modified;
+		}
+	}
+
+	/** A library listed in an index. */
+	static final class Entry {
+
+		final URL url;
+		final long size;
+		final long crc;
+		final String sha256;
+		private final Source source;
+		/** identifies the index the entry comes from */
+		String bundleKey;
+
+		Entry(final URL url, final long size, final long crc,
+			final String sha256, final Source source)
+		{
+			this.url = url;
+			this.size = size;
+			this.crc = crc;
+			this.sha256 = sha256;
+			this.source = source;
+		}
+
+		/**
+		 * @return whether the library is still where the index says, as far as
+		 *         can be told without reading the jar
+		 */
+		boolean isCurrent() {
+			if (!source.isCurrent()) return false;
+			if (!"file".equals(url.getProtocol())) return true;
+			// a library in a directory may have been removed on its own
+			final File file = ZipEntryLocator.toFile(url.toString());
+			return file == null || file.isFile();
+		}
+	}
+}
@@ -32,9 +32,15 @@ package org.scijava.nativelib;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -86,15 +92,9 @@ public class NativeLibraryUtil {
 			OSX_64, OSX_PPC, OSX_ARM64, AIX_32, AIX_64
 	}
 
-	private static enum Processor {
-		UNKNOWN, INTEL_32, INTEL_64, PPC, PPC_64, ARM, AARCH_64
-	}
-
 	public static final String DELIM = "/";
 	public static final String DEFAULT_SEARCH_PATH = "natives" + DELIM;
 
-	private static Architecture architecture = Architecture.UNKNOWN;
-	private static String archStr = null;
 	private static final Logger LOGGER = LoggerFactory.getLogger(
 		"org.scijava.nativelib.NativeLibraryUtil");
 
@@ -102,98 +102,10 @@ public class NativeLibraryUtil {
 	 * Determines the underlying hardware platform and architecture.
 	 *
 	 * @return enumerated architecture value
+	 * @see Platform#current()
 	 */
 	public static Architecture getArchitecture() {
-		if (Architecture.UNKNOWN == architecture) {
-			final Processor processor = getProcessor();
-			if (Processor.UNKNOWN != processor) {
-				final String name = System.getProperty("os.name").toLowerCase();
-				if (name.contains("nix") || name.contains("nux")) {
-					if (Processor.INTEL_32 == processor) {
-						architecture = Architecture.LINUX_32;
-					}
-					else if (Processor.INTEL_64 == processor) {
-						architecture = Architecture.LINUX_64;
-					}
-					else if (Processor.ARM == processor) {
-						architecture = Architecture.LINUX_ARM;
-					}
-					else if (Processor.AARCH_64 == processor) {
-						architecture = Architecture.LINUX_ARM64;
-					}
-				}
-				else if (name.contains("aix")) {
-					if (Processor.PPC == processor) {
-						architecture = Architecture.AIX_32;
-					}
-					else if (Processor.PPC_64 == processor) {
-						architecture = Architecture.AIX_64;
-					}
-				}
-				else if (name.contains("win")) {
-					if (Processor.INTEL_32 == processor) {
-						architecture = Architecture.WINDOWS_32;
-					}
-					else if (Processor.INTEL_64 == processor) {
-						architecture = Architecture.WINDOWS_64;
-					}
-				}
-				else if (name.contains("mac")) {
-					if (Processor.INTEL_32 == processor) {
-						architecture = Architecture.OSX_32;
-					}
-					else if (Processor.INTEL_64 == processor) {
-						architecture = Architecture.OSX_64;
-					}
-					else if (Processor.AARCH_64 == processor) {
-						architecture = Architecture.OSX_ARM64;
-					}
-					else if (Processor.PPC == processor) {
-						architecture = Architecture.OSX_PPC;
-					}
-				}
-			}
-		}
-		LOGGER.debug("architecture is " + architecture + " os.name is " +
-			System.getProperty("os.name").toLowerCase());
-		return architecture;
-	}
-
-	/**
-	 * Determines what processor is in use.
-	 *
-	 * @return The processor in use.
-	 */
-	private static Processor getProcessor() {
-		Processor processor = Processor.UNKNOWN;
-		int bits;
-
-		// Note that this is actually the architecture of the installed JVM.
-		final String arch = System.getProperty("os.arch").toLowerCase();
-
-		if (arch.contains("arm")) {
-			processor = Processor.ARM;
-		}
-		else if (arch.contains("aarch64")) {
-			processor = Processor.AARCH_64;
-		}
-		else if (arch.contains("ppc")) {
-			bits = 32;
-			if (arch.contains("64")) {
-				bits = 64;
-			}
-			processor = (32 == bits) ? Processor.PPC : Processor.PPC_64;
-		}
-		else if (arch.contains("86") || arch.contains("amd")) {
-			bits = 32;
-			if (arch.contains("64")) {
-				bits = 64;
-			}
-			processor = (32 == bits) ? Processor.INTEL_32 : Processor.INTEL_64;
-		}
-		LOGGER.debug("processor is " + processor + " os.arch is " +
-			System.getProperty("os.arch").toLowerCase());
-		return processor;
+		return Platform.current().getArchitecture();
 	}
 
 	/**
@@ -206,14 +118,9 @@ public class NativeLibraryUtil {
 	 * @return path
 	 */
 	public static String getPlatformLibraryPath(String searchPath) {
-		if (archStr == null)
-			archStr = NativeLibraryUtil.getArchitecture().name().toLowerCase();
-
 		// foolproof
-		String fullSearchPath = (searchPath.equals("") || searchPath.endsWith(DELIM) ?
-				searchPath : searchPath + DELIM) + archStr + DELIM;
-		LOGGER.debug("platform specific path is " + fullSearchPath);
-		return fullSearchPath;
+		return (searchPath.equals("") || searchPath.endsWith(DELIM) ?
+				searchPath : searchPath + DELIM) + Platform.current().getPlatformPath();
 	}
 
 	/**
@@ -223,30 +130,9 @@ public class NativeLibraryUtil {
 	 * @return file name
 	 */
 	public static String getPlatformLibraryName(final String libName) {
-		String name = null;
-		switch (getArchitecture()) {
-			case AIX_32:
-			case AIX_64:
-			case LINUX_32:
-			case LINUX_64:
-			case LINUX_ARM:
-			case LINUX_ARM64:
-				name = "lib" + libName + ".so";
-				break;
-			case WINDOWS_32:
-			case WINDOWS_64:
-				name = libName + ".dll";
-				break;
-			case OSX_32:
-			case OSX_64:
-			case OSX_ARM64:
-				name = "lib" + libName + ".dylib";
-				break;
-			default:
-				break;
-		}
-		LOGGER.debug("native library name " + name);
-		return name;
+		final Platform platform = Platform.current();
+		if (platform.getLibrarySuffix() == null) return null;
+		return platform.getLibraryPrefix() + libName + platform.getLibrarySuffix();
 	}
 
 	/**
@@ -312,6 +198,15 @@ public class NativeLibraryUtil {
 
 	/**
 	 * Loads the native library.
+	 * <p>
+	 * In each search path, builds for instruction set extensions the CPU
+	 * supports (e.g. {@code natives/linux_64/avx2/}) are preferred over the
+	 * baseline build; see {@link Platform#getVariants()}.
+	 * <p>
+	 * Whatever file the extractor returns is loaded; if the extractor is a
+	 * {@link BaseJniExtractor} with {@link BaseJniExtractor#setLoadInPlace
+	 * load-in-place} enabled, libraries found in classpath directories are
+	 * loaded from there without being copied.
 	 *
 	 * @param jniExtractor the extractor to use
 	 * @param libName name of library
@@ -326,26 +221,10 @@ public class NativeLibraryUtil {
 		}
 		else {
 			try {
-				final List<String> libPaths = searchPaths == null ?
-						new LinkedList<String>() :
-						new LinkedList<String>(Arrays.asList(searchPaths));
-				libPaths.add(0, NativeLibraryUtil.DEFAULT_SEARCH_PATH);
-				// for backward compatibility
-				libPaths.add(1, "");
-				libPaths.add(2, "META-INF" + NativeLibraryUtil.DELIM + "lib");
-				// NB: Although the documented behavior of this method is to load
-				// native library from META-INF/lib/, what it actually does is
-				// to load from the root dir. See: https://github.com/scijava/
-				// native-lib-loader/blob/6c303443cf81bf913b1732d42c74544f61aef5d1/
-				// src/main/java/org/scijava/nativelib/NativeLoader.java#L126
-
-				// search in each path in {natives/, /, META-INF/lib/, ...}
-				for (String libPath : libPaths) {
-					File extracted = jniExtractor.extractJni(
-							NativeLibraryUtil.getPlatformLibraryPath(libPath),
-							libName);
+				for (final String candidate : getCandidatePaths(searchPaths)) {
+					final File extracted = jniExtractor.extractJni(candidate, libName);
 					if (extracted != null) {
-						System.load(extracted.getAbsolutePath());
+						load(extracted.getAbsolutePath());
 						return true;
 					}
 				}
@@ -359,6 +238,105 @@ public class NativeLibraryUtil {
 		return false;
 	}
 
+	/**
+	 * Extracts several libraries in one pass over the candidate directories:
+	 * each directory is tried for all libraries not found yet, instead of
+	 * building and walking the list of directories once per library.
+	 *
+	 * @param jniExtractor the extractor to use
+	 * @param libNames names of the libraries
+	 * @param failures receives the libraries which could not be extracted,
+	 *          with the reason
+	 * @return the extracted files of the libraries which were found, by name
+	 */
+	static Map<String, File> extractNativeLibraries(
+		final JniExtractor jniExtractor, final Collection<String> libNames,
+		final Map<String, ? super IOException> failures)
+	{
+		final Map<String, File> extracted = new HashMap<String, File>();
+		if (Architecture.UNKNOWN == getArchitecture()) {
+			LOGGER.warn("No native library available for this platform.");
+			return extracted;
+		}
+		final Set<String> pending = new LinkedHashSet<String>(libNames);
+		for (final String candidate : getCandidatePaths()) {
+			if (pending.isEmpty()) break;
+			for (final Iterator<String> iter = pending.iterator(); iter.hasNext();) {
+				final String libName = iter.next();
+				try {
+					final File file = jniExtractor.extractJni(candidate, libName);
+					if (file == null) continue;
+					extracted.put(libName, file);
+				}
+				catch (final IOException e) {
+					LOGGER.debug("Problem with extracting the library", e);
+					failures.put(libName, e);
+				}
+				iter.remove();
+			}
+		}
+		return extracted;
+	}
+
+	/**
+	 * Lists the directories to look for a library in: the platform directory
+	 * below each of {natives/, /, META-INF/lib/} and the given search paths,
+	 * each with the variants for this CPU before the baseline.
+	 */
+	private static List<String> getCandidatePaths(final String... searchPaths) {
+		final List<String> libPaths = new ArrayList<String>();
+		libPaths.add(NativeLibraryUtil.DEFAULT_SEARCH_PATH);
+		// for backward compatibility
+		libPaths.add("");
+		libPaths.add("META-INF" + NativeLibraryUtil.DELIM + "lib");
+		// NB: Although the documented behavior of this method is to load
+		// native library from META-INF/lib/, what it actually does is
+		// to load from the root dir. See: https://github.com/scijava/
+		// native-lib-loader/blob/6c303443cf81bf913b1732d42c74544f61aef5d1/
+		// src/main/java/org/scijava/nativelib/NativeLoader.java#L126
+		if (searchPaths != null) libPaths.addAll(Arrays.asList(searchPaths));
+
+		final List<String> variants = Platform.current().getVariants();
+		final List<String> candidates = new ArrayList<String>();
+		for (final String libPath : libPaths) {
+			final String platformPath =
+				NativeLibraryUtil.getPlatformLibraryPath(libPath);
+			for (final String variant : variants) {
+				candidates.add(platformPath + variant);
+			}
+			candidates.add(platformPath);
+		}
+		return candidates;
+	}
+
+	/**
+	 * Links a library with {@link System#load(String)}, reporting how long it
+	 * took to the {@link NativeMetrics} listeners and the flight recorder.
+	 */
+	static void load(final String path) {
+		final Object event = NativeEvents.LOAD.begin();
+		final long start = System.nanoTime();
+		boolean success = false;
+		String outcome = "failed";
+		try {
+			System.load(path);
+			success = true;
+			outcome = "loaded";
+		}
+		catch (final UnsatisfiedLinkError e) {
+			outcome = NativeEvents.failed(e);
+			throw e;
+		}
+		finally {
+			NativeMetrics.libraryLinked(path, success, System.nanoTime() - start);
+			if (event != null) {
+				final File file = new File(path);
+				NativeEvents.LOAD.commit(event, file.getName(), null, path,
+					file.length(), outcome);
+			}
+		}
+	}
+
 	/**
 	 * Loads the native library.
 	 *
@@ -36,7 +36,23 @@
 
 package org.scijava.nativelib;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 /**
  * Provides a means of loading JNI libraries which are stored within a jar.
@@ -48,6 +64,15 @@ import java.io.IOException;
  * expects to find the library in natives/, with its OS-dependent name. It
  * extracts the library underneath a temporary directory, whose name is given by
  * the System property "java.library.tmpdir", defaulting to "tmplib".
+ * If the System property "org.scijava.nativelib.cacheDir" is set, libraries
+ * are instead kept in that directory across JVM restarts (see
+ * {@link CachingJniExtractor}); setting "org.scijava.nativelib.shared" to true
+ * does the same with the default cache directory, so that all JVMs on a host
+ * share one copy of each library.
+ * <p>
+ * The extractor is only created once a library is not found on
+ * <code>java.library.path</code>, so applications whose libraries are
+ * installed there pay nothing for it.
  * <p>
  * This is complicated by <a href=
  * "http://docs.oracle.com/javase/6/docs/technotes/guides/jni/jni-12.html#libmanage"
@@ -78,34 +103,82 @@ import java.io.IOException;
  */
 public class NativeLoader {
 
-	private static JniExtractor jniExtractor = null;
+	private static volatile JniExtractor jniExtractor = null;
 
-	static {
-		try {
-			/* 
-			 * We provide two implementations of JniExtractor
-			 * 
-			 * The first will work with transitively, dynamically linked libraries with shared global variables 
-			 *   (e.g. dynamically linked c++) but can only be used by one ClassLoader in the JVM.
-			 *   
-			 * The second can be used by multiple ClassLoaders in the JVM but will only work if global variables 
-			 *   are not shared between transitively, dynamically linked libraries.
-			 * 
-			 * For convenience we assume that if the NativeLoader is loaded by the system ClassLoader then it should be 
-			 *   use the first form, and that if it is loaded by a different ClassLoader then it should use the second.
-			 */
-			if (NativeLoader.class.getClassLoader() == ClassLoader
-				.getSystemClassLoader())
-			{
-				jniExtractor = new DefaultJniExtractor(null);
-			}
-			else {
-				jniExtractor = new WebappJniExtractor("Classloader");
+	/**
+	 * Held while a library is extracted and loaded, so that no other thread
+	 * rewrites its file meanwhile.
+	 */
+	private static final StripedLocks libraryLocks = new StripedLocks(64);
+
+	/**
+	 * Libraries which have been loaded (or are being loaded) by
+	 * {@link #loadLibrary(String, String...)}, by name.
+	 */
+	private static final ConcurrentMap<String, Load> loadedLibraries =
+		new ConcurrentHashMap<String, Load>();
+
+	/** runs the asynchronous variants of the loader methods */
+	private static ExecutorService executor = null;
+
+	/**
+	 * Returns the extractor, creating the default one on first use. Nothing is
+	 * set up for extraction (no temporary directory, no platform probing, no
+	 * cleanup of leftovers) until a library is not found on
+	 * {@code java.library.path} and has to be extracted.
+	 */
+	private static JniExtractor extractor() throws IOException {
+		JniExtractor extractor = jniExtractor;
+		if (extractor == null) {
+			synchronized (NativeLoader.class) {
+				extractor = jniExtractor;
+				if (extractor == null) {
+					extractor = createDefaultExtractor();
+					jniExtractor = extractor;
+				}
 			}
 		}
-		catch (final IOException e) {
-			throw new ExceptionInInitializerError(e);
+		return extractor;
+	}
+
+	/** @return whether an extractor has been created or set (for tests) */
+	static boolean isExtractorCreated() {
+		return jniExtractor != null;
+	}
+
+	private static JniExtractor createDefaultExtractor() throws IOException {
+		/* 
+		 * We provide two implementations of JniExtractor
+		 * 
+		 * The first will work with transitively, dynamically linked libraries with shared global variables 
+		 *   (e.g. dynamically linked c++) but can only be used by one ClassLoader in the JVM.
+		 *   
+		 * The second can be used by multiple ClassLoaders in the JVM but will only work if global variables 
+		 *   are not shared between transitively, dynamically linked libraries.
+		 * 
+		 * For convenience we assume that if the NativeLoader is loaded by the system ClassLoader then it should be 
+		 *   use the first form, and that if it is loaded by a different ClassLoader then it should use the second.
+		 *
+		 * If a cache directory or shared extraction is configured, the first form is replaced by one which
+		 *   keeps the extracted libraries across JVM restarts and shares them between JVMs.
+		 */
+		if (NativeLoader.class.getClassLoader() == ClassLoader
+			.getSystemClassLoader())
+		{
+			if (System.getProperty(CachingJniExtractor.CACHE_DIR) != null) {
+				return new CachingJniExtractor(null);
+			}
+			if (Boolean.getBoolean(CachingJniExtractor.SHARED)) {
+				try {
+					return new CachingJniExtractor(null);
+				}
+				catch (final IOException e) {
+					// the default cache directory is not private: do not share
+				}
+			}
+			return new DefaultJniExtractor(null);
 		}
+		return new WebappJniExtractor("Classloader");
 	}
 
 	/**
@@ -117,6 +190,13 @@ public class NativeLoader {
 	 * If natives/ does not exists or does not contain the directory structure,
 	 * &lt;platform&gt;/&lt;lib_binary&gt; will be searched in the root,
 	 * META-INF/lib/ and <code>searchPaths</code>.
+	 * <p>
+	 * Each library is loaded only once: further calls with the same name return
+	 * immediately, and concurrent calls wait for the thread which does the
+	 * loading. A failed attempt is not remembered, so it can be retried. A call
+	 * made by the loading thread itself while the library is being loaded, e.g.
+	 * from a static initializer or {@code JNI_OnLoad}, returns immediately, as
+	 * {@link System#loadLibrary(String)} does.
 	 * 
 	 * @param libName platform-independent library name (as would be passed to
 	 *          System.loadLibrary)
@@ -131,14 +211,259 @@ public class NativeLoader {
 	public static void loadLibrary(final String libName,
 		final String... searchPaths) throws IOException
 	{
+		Load load = loadedLibraries.get(libName);
+		if (load == null) {
+			final Load task = new Load(new Callable<Void>() {
+
+				@Override
+				public Void call() throws IOException {
+					loadLibraryOnce(libName, searchPaths);
+					return null;
+				}
+			});
+			load = loadedLibraries.putIfAbsent(libName, task);
+			if (load == null) {
+				// we won the race: load it on this thread
+				load = task;
+				task.run();
+			}
+		}
+		final Throwable cause = await(libName, load);
+		if (cause == null) return;
+		if (cause instanceof IOException) throw (IOException) cause;
+		if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+		if (cause instanceof Error) throw (Error) cause;
+		throw new IOException("Couldn't load library " + libName, cause);
+	}
+
+	/**
+	 * Waits for a library to be loaded.
+	 *
+	 * @return null if the library was loaded, or why it was not
+	 */
+	private static Throwable await(final String libName, final Load load) {
+		// waiting for ourselves would never end
+		if (load.owner == Thread.currentThread() && !load.isDone()) return null;
+		try {
+			load.get();
+			return null;
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return new InterruptedIOException("Interrupted while waiting for " +
+				libName + " to be loaded");
+		}
+		catch (final ExecutionException e) {
+			// forget the failure, so that the library can be tried again later
+			loadedLibraries.remove(libName, load);
+			return e.getCause();
+		}
+	}
+
+	/**
+	 * Loads several libraries, as {@link #loadLibrary(String, String...)} would
+	 * one after the other, but with less overhead: the libraries which are not
+	 * on {@code java.library.path} are looked up in one pass over the candidate
+	 * directories and extracted together, and then loaded in the given order.
+	 * Libraries which depend on others should therefore come after them.
+	 * <p>
+	 * A library which cannot be loaded does not stop the others from being
+	 * loaded; each one's outcome is reported in the result.
+	 *
+	 * @param libNames platform-independent library names (as would be passed
+	 *          to System.loadLibrary)
+	 * @return the outcome for each library, in the given order
+	 */
+	public static List<LoadResult> loadLibraries(final String... libNames) {
+		// claim the libraries nobody else is loading; wait for the others
+		final Map<String, Load> loads = new LinkedHashMap<String, Load>();
+		final Map<String, BatchLoad> claimed =
+			new LinkedHashMap<String, BatchLoad>();
+		for (final String libName : libNames) {
+			if (loads.containsKey(libName)) continue;
+			final BatchLoad load = new BatchLoad();
+			final Load existing = loadedLibraries.putIfAbsent(libName, load);
+			if (existing == null) claimed.put(libName, load);
+			loads.put(libName, existing != null ? existing : load);
+		}
+
+		try {
+			return loadClaimed(libNames, loads, claimed);
+		}
+		finally {
+			// whatever went wrong, nobody may be left waiting for these
+			for (final Map.Entry<String, BatchLoad> entry : claimed.entrySet()) {
+				if (!entry.getValue().isDone()) {
+					entry.getValue().failed(new IOException("Couldn't load library " +
+						entry.getKey() + ": loading was aborted"));
+				}
+			}
+		}
+	}
+
+	private static List<LoadResult> loadClaimed(final String[] libNames,
+		final Map<String, Load> loads,
+		final Map<String, BatchLoad> claimed)
+	{
+		// as with loadLibrary, java.library.path comes first
+		final Map<String, Long> elapsed = new HashMap<String, Long>();
+		final Map<String, UnsatisfiedLinkError> notFound =
+			new HashMap<String, UnsatisfiedLinkError>();
+		for (final Map.Entry<String, BatchLoad> entry : claimed.entrySet()) {
+			final String libName = entry.getKey();
+			final long start = System.nanoTime();
+			try {
+				System.loadLibrary(libName);
+				if (NativeMetrics.isEnabled()) {
+					NativeMetrics.libraryLoaded(libName, true, System.nanoTime() - start);
+				}
+				entry.getValue().loaded(null);
+			}
+			catch (final UnsatisfiedLinkError e) {
+				notFound.put(libName, e);
+				elapsed.put(libName, System.nanoTime() - start);
+			}
+			catch (final Throwable t) {
+				// e.g. a SecurityException
+				NativeMetrics.libraryLoaded(libName, false, System.nanoTime() - start);
+				entry.getValue().failed(t);
+			}
+		}
+
+		final Map<String, Throwable> failures = new HashMap<String, Throwable>();
+		Map<String, File> extracted = Collections.emptyMap();
+		if (!notFound.isEmpty()) {
+			try {
+				extracted = NativeLibraryUtil.extractNativeLibraries(extractor(),
+					notFound.keySet(), failures);
+			}
+			catch (final Throwable t) {
+				for (final String libName : notFound.keySet()) {
+					failures.put(libName, t);
+				}
+			}
+		}
+
+		final List<LoadResult> results = new ArrayList<LoadResult>();
+		for (final String libName : libNames) {
+			final BatchLoad load = claimed.get(libName);
+			if (load != null && !load.isDone()) {
+				final long start = System.nanoTime();
+				final File file = extracted.get(libName);
+				boolean success = false;
+				synchronized (libraryLocks.get(libName)) {
+					try {
+						if (file == null) {
+							final Throwable cause = failures.containsKey(libName)
+								? failures.get(libName) : notFound.get(libName);
+							throw new IOException("Couldn't load library " + libName, cause);
+						}
+						NativeLibraryUtil.load(file.getAbsolutePath());
+						success = true;
+						load.loaded(file);
+					}
+					catch (final UnsatisfiedLinkError e) {
+						load.failed(new IOException("Couldn't load library " + libName, e));
+					}
+					catch (final Throwable t) {
+						load.failed(t);
+					}
+					finally {
+						NativeMetrics.libraryLoaded(libName, success, elapsed.get(libName) +
+							System.nanoTime() - start);
+					}
+				}
+			}
+			final Throwable error = await(libName, loads.get(libName));
+			results.add(new LoadResult(libName, error == null && load != null
+				? load.file : null, error));
+		}
+		return results;
+	}
+
+	/** The load of a library, by the thread which created it. */
+	private static class Load extends FutureTask<Void> {
+
+		final Thread owner = Thread.currentThread();
+
+		Load(final Callable<Void> callable) {
+			super(callable);
+		}
+	}
+
+	/**
+	 * A load by {@link #loadLibraries(String...)}, which completes it itself.
+	 */
+	private static final class BatchLoad extends Load {
+
+		private volatile File file;
+
+		BatchLoad() {
+			super(new Callable<Void>() {
+
+				@Override
+				public Void call() {
+					// completed by loaded or failed instead
+					return null;
+				}
+			});
+		}
+
+		void loaded(final File loadedFile) {
+			file = loadedFile;
+			set(null);
+		}
+
+		void failed(final Throwable t) {
+			setException(t);
+		}
+	}
+
+	/**
+	 * @param libName platform-independent library name
+	 * @return whether the library has been loaded successfully by
+	 *         {@link #loadLibrary(String, String...)}
+	 */
+	public static boolean isLoaded(final String libName) {
+		final Load load = loadedLibraries.get(libName);
+		return load != null && load.isDone() && !loadFailed(load);
+	}
+
+	private static boolean loadFailed(final FutureTask<Void> load) {
 		try {
-			// try to load library from classpath
-			System.loadLibrary(libName);
+			load.get();
+			return false;
 		}
-		catch (final UnsatisfiedLinkError e) {
-			if (NativeLibraryUtil.loadNativeLibrary(jniExtractor, libName,
-				searchPaths)) return;
-			throw new IOException("Couldn't load library library " + libName, e);
+		catch (final Exception e) {
+			return true;
+		}
+	}
+
+	private static void loadLibraryOnce(final String libName,
+		final String... searchPaths) throws IOException
+	{
+		final long start = System.nanoTime();
+		boolean success = false;
+		synchronized (libraryLocks.get(libName)) {
+			try {
+				// try to load library from classpath
+				System.loadLibrary(libName);
+				success = true;
+			}
+			catch (final UnsatisfiedLinkError e) {
+				success = NativeLibraryUtil.loadNativeLibrary(extractor(), libName,
+					searchPaths);
+				if (!success) {
+					throw new IOException("Couldn't load library library " + libName, e);
+				}
+			}
+			finally {
+				// nothing is measured on the fast path unless somebody listens
+				if (NativeMetrics.isEnabled()) {
+					NativeMetrics.libraryLoaded(libName, success, System.nanoTime() -
+						start);
+				}
+			}
 		}
 	}
 
@@ -151,17 +476,123 @@ public class NativeLoader {
 	 * @throws IOException if there is a problem extracting the libraries
 	 */
 	public static void extractRegistered() throws IOException {
-		jniExtractor.extractRegistered();
+		extractor().extractRegistered();
+	}
+
+	/**
+	 * Extract all libraries registered for auto-extraction, like
+	 * {@link #extractRegistered()}, and load them in the order of their
+	 * dependencies, so that they need not be found by the dynamic linker.
+	 * Libraries which do not depend on each other are loaded concurrently on
+	 * the {@link #getExecutor() executor}.
+	 * <p>
+	 * This requires the JniExtractor to be a {@link BaseJniExtractor}; other
+	 * extractors only extract the libraries.
+	 * 
+	 * @throws IOException if there is a problem extracting or loading the
+	 *           libraries
+	 * @see ElfDependencyLoader
+	 */
+	public static void loadRegistered() throws IOException {
+		final JniExtractor extractor = extractor();
+		if (!(extractor instanceof BaseJniExtractor)) {
+			extractor.extractRegistered();
+			return;
+		}
+		final List<File> libraries =
+			((BaseJniExtractor) extractor).extractRegisteredLibraries();
+		new ElfDependencyLoader(getExecutor()).load(libraries);
 	}
 
 	/**
-	 * @return the JniExtractor implementation object.
+	 * Starts loading the given library in the background, as
+	 * {@link #loadLibrary(String, String...)} would. This allows loading to
+	 * overlap with other initialization of the application; call
+	 * {@link Future#get()} on the result before the library is first used.
+	 * 
+	 * @param libName platform-independent library name (as would be passed to
+	 *          System.loadLibrary)
+	 * @param searchPaths a list of additional paths relative to the jar's root
+	 * 			to search for the specified native library
+	 * @return a future which completes when the library is loaded, or fails
+	 *         with the exception {@link #loadLibrary(String, String...)} would
+	 *         have thrown
+	 * @see #setExecutor(ExecutorService)
+	 */
+	public static Future<Void> loadLibraryAsync(final String libName,
+		final String... searchPaths)
+	{
+		return getExecutor().submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws IOException {
+				loadLibrary(libName, searchPaths);
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Starts extracting all registered libraries in the background, as
+	 * {@link #extractRegistered()} would.
+	 * 
+	 * @return a future which completes when all libraries are extracted, or
+	 *         fails with the exception {@link #extractRegistered()} would have
+	 *         thrown
+	 * @see #setExecutor(ExecutorService)
+	 */
+	public static Future<Void> extractRegisteredAsync() {
+		return getExecutor().submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws IOException {
+				extractRegistered();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * @return the executor which runs {@link #loadLibraryAsync} and
+	 *         {@link #extractRegisteredAsync()}; unless one has been set, a pool
+	 *         of daemon threads is created on first use.
+	 */
+	public static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			executor =
+				Executors.newCachedThreadPool(new DaemonThreadFactory("native-lib-loader"));
+		}
+		return executor;
+	}
+
+	/**
+	 * @param executor executor to run {@link #loadLibraryAsync} and
+	 *          {@link #extractRegisteredAsync()} on instead of the default.
+	 */
+	public static synchronized void setExecutor(final ExecutorService executor) {
+		NativeLoader.executor = executor;
+	}
+
+	/**
+	 * @return the JniExtractor implementation object, which is created on the
+	 *         first call unless one has been set.
+	 * @throws IllegalStateException if the default extractor cannot be created
 	 */
 	public static JniExtractor getJniExtractor() {
-		return jniExtractor;
+		try {
+			return extractor();
+		}
+		catch (final IOException e) {
+			throw new IllegalStateException("Cannot create the JniExtractor", e);
+		}
 	}
 
 	/**
+	 * Replaces the extractor. Loads which are already extracting a library
+	 * finish with the previous one; all later ones use the new one. If this is
+	 * called before any library needed extracting, the default extractor is
+	 * never created.
+	 *
 	 * @param jniExtractor JniExtractor implementation to use instead of the
 	 *          default.
 	 */
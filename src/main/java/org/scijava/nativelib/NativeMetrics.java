@@ -0,0 +1,218 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.net.URL;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link NativeMetricsListener}s which are told about the loader's work.
+ * <p>
+ * By default there are none, and reporting costs next to nothing. Listeners
+ * are added with {@link #register(NativeMetricsListener)}, or, if the
+ * {@code org.scijava.nativelib.metricsServices} system property is set,
+ * picked up from
+ * {@code META-INF/services/org.scijava.nativelib.NativeMetricsListener}
+ * resources when the first event is reported, so that they see the loader's
+ * initialization. Without the property, the class path is not searched for
+ * them. A listener which throws is logged and otherwise ignored.
+ */
+public final class NativeMetrics {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.NativeMetrics");
+
+	static final String METRICS_SERVICES =
+		"org.scijava.nativelib.metricsServices";
+
+	private static final List<NativeMetricsListener> LISTENERS =
+		new CopyOnWriteArrayList<NativeMetricsListener>();
+
+	/** whether the service listeners are still to be loaded */
+	private static volatile boolean servicesPending =
+		Boolean.getBoolean(METRICS_SERVICES);
+
+	private NativeMetrics() {
+		// prevent instantiation of utility class
+	}
+
+	private static List<NativeMetricsListener> listeners() {
+		if (servicesPending) loadServices();
+		return LISTENERS;
+	}
+
+	private static synchronized void loadServices() {
+		if (!servicesPending) return;
+		servicesPending = false;
+		for (final NativeMetricsListener listener : ServiceLoader.load(
+			NativeMetricsListener.class, NativeMetrics.class.getClassLoader()))
+		{
+			LISTENERS.add(listener);
+		}
+	}
+
+	/**
+	 * @return whether there are listeners, i.e. whether events are worth
+	 *         measuring
+	 */
+	static boolean isEnabled() {
+		return !listeners().isEmpty();
+	}
+
+	/**
+	 * @param listener a listener to tell about all further events
+	 */
+	public static void register(final NativeMetricsListener listener) {
+		LISTENERS.add(listener);
+	}
+
+	/**
+	 * @param listener a previously registered listener
+	 */
+	public static void unregister(final NativeMetricsListener listener) {
+		LISTENERS.remove(listener);
+	}
+
+	/**
+	 * @return the registered listeners
+	 */
+	public static List<NativeMetricsListener> getListeners() {
+		return listeners();
+	}
+
+	static void platformDetected(final String platform, final long nanos) {
+		for (final NativeMetricsListener listener : listeners()) {
+			try {
+				listener.platformDetected(platform, nanos);
+			}
+			catch (final RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+
+	static void resourceLookedUp(final String path, final boolean found,
+		final long nanos)
+	{
+		for (final NativeMetricsListener listener : listeners()) {
+			try {
+				listener.resourceLookedUp(path, found, nanos);
+			}
+			catch (final RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+
+	static void resourceExtracted(final URL resource, final File target,
+		final long bytes, final long nanos)
+	{
+		for (final NativeMetricsListener listener : listeners()) {
+			try {
+				listener.resourceExtracted(resource, target, bytes, nanos);
+			}
+			catch (final RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+
+	static void cacheHit(final File target) {
+		for (final NativeMetricsListener listener : listeners()) {
+			try {
+				listener.cacheHit(target);
+			}
+			catch (final RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+
+	static void cacheMiss(final File target) {
+		for (final NativeMetricsListener listener : listeners()) {
+			try {
+				listener.cacheMiss(target);
+			}
+			catch (final RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+
+	static void libraryLinked(final String path, final boolean success,
+		final long nanos)
+	{
+		for (final NativeMetricsListener listener : listeners()) {
+			try {
+				listener.libraryLinked(path, success, nanos);
+			}
+			catch (final RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+
+	static void libraryLoaded(final String libName, final boolean success,
+		final long nanos)
+	{
+		for (final NativeMetricsListener listener : listeners()) {
+			try {
+				listener.libraryLoaded(libName, success, nanos);
+			}
+			catch (final RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+
+	static void leftoversDeleted(final int folders, final long nanos) {
+		for (final NativeMetricsListener listener : listeners()) {
+			try {
+				listener.leftoversDeleted(folders, nanos);
+			}
+			catch (final RuntimeException e) {
+				failed(listener, e);
+			}
+		}
+	}
+
+	private static void failed(final NativeMetricsListener listener,
+		final RuntimeException e)
+	{
+		LOGGER.warn("Metrics listener " + listener + " failed", e);
+	}
+}
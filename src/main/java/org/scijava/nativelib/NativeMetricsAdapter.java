@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * A {@link NativeMetricsListener} which ignores everything. Extend it to
+ * receive only some of the events.
+ */
+public class NativeMetricsAdapter implements NativeMetricsListener {
+
+	@Override
+	public void platformDetected(final String platform, final long nanos) {
+		// ignore
+	}
+
+	@Override
+	public void resourceLookedUp(final String path, final boolean found,
+		final long nanos)
+	{
+		// ignore
+	}
+
+	@Override
+	public void resourceExtracted(final URL resource, final File target,
+		final long bytes, final long nanos)
+	{
+		// ignore
+	}
+
+	@Override
+	public void cacheHit(final File target) {
+		// ignore
+	}
+
+	@Override
+	public void cacheMiss(final File target) {
+		// ignore
+	}
+
+	@Override
+	public void libraryLinked(final String path, final boolean success,
+		final long nanos)
+	{
+		// ignore
+	}
+
+	@Override
+	public void libraryLoaded(final String libName, final boolean success,
+		final long nanos)
+	{
+		// ignore
+	}
+
+	@Override
+	public void leftoversDeleted(final int folders, final long nanos) {
+		// ignore
+	}
+}
@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link NativeMetricsListener} which sums up counts and times per phase in
+ * memory.
+ */
+public class NativeMetricsAggregator implements NativeMetricsListener {
+
+	/** the phases for which counts and times are kept */
+	public static enum Phase {
+		PLATFORM_DETECTION, RESOURCE_LOOKUP, EXTRACTION, SYSTEM_LOAD,
+			LIBRARY_LOAD, LEFTOVER_CLEANUP
+	}
+
+	private final AtomicLongArray counts =
+		new AtomicLongArray(Phase.values().length);
+	private final AtomicLongArray times =
+		new AtomicLongArray(Phase.values().length);
+	private final AtomicLong resourcesFound = new AtomicLong();
+	private final AtomicLong bytesExtracted = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong leftoversDeleted = new AtomicLong();
+
+	/**
+	 * @param phase the phase
+	 * @return how often the phase was run
+	 */
+	public long getCount(final Phase phase) {
+		return counts.get(phase.ordinal());
+	}
+
+	/**
+	 * @param phase the phase
+	 * @return the total time spent in the phase, in nanoseconds
+	 */
+	public long getNanos(final Phase phase) {
+		return times.get(phase.ordinal());
+	}
+
+	/** @return the number of lookups which found a resource */
+	public long getResourcesFound() {
+		return resourcesFound.get();
+	}
+
+	/** @return the total size of all extracted libraries */
+	public long getBytesExtracted() {
+		return bytesExtracted.get();
+	}
+
+	/** @return how often a cached library was used */
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	/** @return how often a library had to be written to the cache */
+	public long getCacheMisses() {
+		return cacheMisses.get();
+	}
+
+	/** @return how many libraries failed to link or to load */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/** @return how many leftover folders were deleted */
+	public long getLeftoversDeleted() {
+		return leftoversDeleted.get();
+	}
+
+	/** Sets all counters back to zero. */
+	public void reset() {
+		for (int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+			times.set(i, 0);
+		}
+		resourcesFound.set(0);
+		bytesExtracted.set(0);
+		cacheHits.set(0);
+		cacheMisses.set(0);
+		failures.set(0);
+		leftoversDeleted.set(0);
+	}
+
+	@Override
+	public void platformDetected(final String platform, final long nanos) {
+		add(Phase.PLATFORM_DETECTION, nanos);
+	}
+
+	@Override
+	public void resourceLookedUp(final String path, final boolean found,
+		final long nanos)
+	{
+		add(Phase.RESOURCE_LOOKUP, nanos);
+		if (found) resourcesFound.incrementAndGet();
+	}
+
+	@Override
+	public void resourceExtracted(final URL resource, final File target,
+		final long bytes, final long nanos)
+	{
+		add(Phase.EXTRACTION, nanos);
+		bytesExtracted.addAndGet(bytes);
+	}
+
+	@Override
+	public void cacheHit(final File target) {
+		cacheHits.incrementAndGet();
+	}
+
+	@Override
+	public void cacheMiss(final File target) {
+		cacheMisses.incrementAndGet();
+	}
+
+	@Override
+	public void libraryLinked(final String path, final boolean success,
+		final long nanos)
+	{
+		add(Phase.SYSTEM_LOAD, nanos);
+		if (!success) failures.incrementAndGet();
+	}
+
+	@Override
+	public void libraryLoaded(final String libName, final boolean success,
+		final long nanos)
+	{
+		add(Phase.LIBRARY_LOAD, nanos);
+		if (!success) failures.incrementAndGet();
+	}
+
+	@Override
+	public void leftoversDeleted(final int folders, final long nanos) {
+		add(Phase.LEFTOVER_CLEANUP, nanos);
+		leftoversDeleted.addAndGet(folders);
+	}
+
+	private void add(final Phase phase, final long nanos) {
+		counts.incrementAndGet(phase.ordinal());
+		times.addAndGet(phase.ordinal(), nanos);
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder builder = new StringBuilder();
+		for (final Phase phase : Phase.values()) {
+			builder.append(phase.name().toLowerCase()).append(": ")
+				.append(getCount(phase)).append(" in ")
+				.append(getNanos(phase) / 1000000).append("ms, ");
+		}
+		return builder.append("resources found: ").append(getResourcesFound())
+			.append(", bytes extracted: ").append(getBytesExtracted())
+			.append(", cache hits: ").append(getCacheHits())
+			.append(", cache misses: ").append(getCacheMisses())
+			.append(", failures: ").append(getFailures())
+			.append(", leftovers deleted: ").append(getLeftoversDeleted())
+			.toString();
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.net.URL;
+
+/**
+ * Receives timings and counters from the phases of finding, extracting and
+ * loading native libraries, e.g. to export them to a monitoring system.
+ * <p>
+ * All durations are in nanoseconds. Listeners are called on the thread which
+ * does the work, possibly on several threads at once, so implementations
+ * must be thread-safe and should return quickly. See {@link NativeMetrics}
+ * for how to register a listener.
+ */
+public interface NativeMetricsListener {
+
+	/**
+	 * Called when the platform has been determined.
+	 *
+	 * @param platform the detected platform, e.g. {@code linux_64} or an
+	 *          mx.sysinfo string
+	 * @param nanos the time the detection took
+	 */
+	public void platformDetected(String platform, long nanos);
+
+	/**
+	 * Called for each candidate path at which a library is looked up.
+	 *
+	 * @param path the resource path
+	 * @param found whether a resource exists at the path
+	 * @param nanos the time the lookup took
+	 */
+	public void resourceLookedUp(String path, boolean found, long nanos);
+
+	/**
+	 * Called when a library has been copied out of the class path.
+	 *
+	 * @param resource where the library was copied from
+	 * @param target where the library was copied to
+	 * @param bytes the size of the written file
+	 * @param nanos the time the copy took
+	 */
+	public void resourceExtracted(URL resource, File target, long bytes,
+		long nanos);
+
+	/**
+	 * Called when a cached copy of a library is used instead of extracting it
+	 * again.
+	 *
+	 * @param target the cached file
+	 */
+	public void cacheHit(File target);
+
+	/**
+	 * Called when a library is not in the cache, or the cached copy is stale.
+	 *
+	 * @param target the cached file which is about to be written
+	 */
+	public void cacheMiss(File target);
+
+	/**
+	 * Called after {@link System#load(String)} has linked an extracted library.
+	 *
+	 * @param path the absolute path of the library
+	 * @param success whether the library was linked
+	 * @param nanos the time {@link System#load(String)} took
+	 */
+	public void libraryLinked(String path, boolean success, long nanos);
+
+	/**
+	 * Called when {@link NativeLoader#loadLibrary(String, String...)} has
+	 * finished loading a library for the first time.
+	 *
+	 * @param libName the platform-independent library name
+	 * @param success whether the library was loaded
+	 * @param nanos the total time, including lookup and extraction
+	 */
+	public void libraryLoaded(String libName, boolean success, long nanos);
+
+	/**
+	 * Called when leftover libraries of previous runs have been cleaned up.
+	 *
+	 * @param folders the number of folders which were deleted
+	 * @param nanos the time the cleanup took
+	 */
+	public void leftoversDeleted(int folders, long nanos);
+}
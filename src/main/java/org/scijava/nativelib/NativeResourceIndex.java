@@ -0,0 +1,489 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Index of the native libraries visible to a class loader, keyed by directory
+ * (e.g. {@code natives/linux_64/}) and file name.
+ * <p>
+ * When the class loader and all of its parents are plain
+ * {@link URLClassLoader}s with local class path entries, or (on Java 9 and
+ * later) the application class loader searching the {@code java.class.path}
+ * without a module path, every jar is scanned
+ * once, the first time a library is looked up, and all further lookups
+ * (including those for libraries which do not exist) are answered from the
+ * index. Directories on the class path are not scanned, since their contents
+ * may change; they are checked with a simple file lookup instead. The index is
+ * rebuilt if entries have been added to the class path when a library is not
+ * found. For any other class
+ * loader, the results of
+ * {@link ClassLoader#getResource(String)} are remembered instead, misses
+ * included.
+ * <p>
+ * Only names which look like native libraries are indexed; other resources are
+ * always looked up through the class loader.
+ */
+final class NativeResourceIndex {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.NativeResourceIndex");
+
+	private static final Map<ClassLoader, NativeResourceIndex> INDEXES =
+		new WeakHashMap<ClassLoader, NativeResourceIndex>();
+
+	/** Java 9+ application and platform class loaders */
+	private static final String APP_LOADER =
+		"jdk.internal.loader.ClassLoaders$AppClassLoader";
+	private static final String PLATFORM_LOADER =
+		"jdk.internal.loader.ClassLoaders$PlatformClassLoader";
+
+	/** whether URLClassLoader subclasses look up resources unchanged */
+	private static final Map<Class<?>, Boolean> PLAIN_LOADERS =
+		Collections.synchronizedMap(new WeakHashMap<Class<?>, Boolean>());
+
+	/** the parsed java.class.path, for the Java 9+ application class loader */
+	private static volatile ClassPath classPath;
+
+	/** Marks a remembered miss, since ConcurrentHashMap has no null values. */
+	private static final Object NOT_FOUND = new Object();
+
+	private final WeakReference<ClassLoader> loader;
+
+	/** the scanned class path, or null if it has not been scanned (yet) */
+	private volatile Snapshot snapshot;
+
+	/** remembered lookups, for class loaders which cannot be scanned */
+	private final ConcurrentMap<String, Object> lookups =
+		new ConcurrentHashMap<String, Object>();
+
+	private NativeResourceIndex(final ClassLoader loader) {
+		this.loader = new WeakReference<ClassLoader>(loader);
+	}
+
+	/**
+	 * @param loader the class loader whose resources to look up
+	 * @return the (shared) index of the given class loader
+	 */
+	static NativeResourceIndex forClassLoader(final ClassLoader loader) {
+		synchronized (INDEXES) {
+			NativeResourceIndex index = INDEXES.get(loader);
+			if (index == null) {
+				index = new NativeResourceIndex(loader);
+				INDEXES.put(loader, index);
+			}
+			return index;
+		}
+	}
+
+	/**
+	 * Checks whether a file name looks like a native library (possibly
+	 * compressed with a {@link NativeCodec}) and is thus part of the index.
+	 *
+	 * @param fileName a file name without directory
+	 * @return whether lookups for the name are answered from the index
+	 */
+	static boolean isIndexed(final String fileName) {
+		final String name = NativeCodecs.stripSuffix(fileName);
+		return name.endsWith(".so") || name.contains(".so.") ||
+			name.endsWith(".dll") || name.endsWith(".dylib") ||
+			name.endsWith(".jnilib") || name.endsWith(".a");
+	}
+
+	/**
+	 * Finds a resource.
+	 *
+	 * @param path the resource path, e.g. {@code natives/linux_64/libfoo.so}
+	 * @return the URL of the resource, or null if there is none
+	 */
+	URL getResource(final String path) {
+		final int slash = path.lastIndexOf('/');
+		return getResource(path.substring(0, slash + 1), path.substring(slash + 1));
+	}
+
+	/**
+	 * Finds a resource.
+	 *
+	 * @param directory the directory, with a trailing slash, or the empty string
+	 *          for the root
+	 * @param name the file name
+	 * @return the URL of the resource, or null if there is none
+	 */
+	URL getResource(final String directory, final String name) {
+		final ClassLoader classLoader = loader.get();
+		if (classLoader == null) return null;
+		if (!isIndexed(name)) return classLoader.getResource(directory + name);
+
+		// class path entries are only ever appended, so a hit stays valid and
+		// the class path only needs to be counted again on a miss
+		final Snapshot current = snapshot;
+		if (current != null) {
+			final URL url = current.getResource(directory, name);
+			if (url != null) return url;
+		}
+		final int urlCount = countURLs(classLoader);
+		if (urlCount >= 0) {
+			if (current != null && current.urlCount == urlCount) return null;
+			return getSnapshot(classLoader, urlCount).getResource(directory, name);
+		}
+
+		final String path = directory + name;
+		final Object known = lookups.get(path);
+		if (known != null) return known == NOT_FOUND ? null : (URL) known;
+		final URL url = classLoader.getResource(path);
+		lookups.putIfAbsent(path, url == null ? NOT_FOUND : url);
+		return url;
+	}
+
+	private Snapshot getSnapshot(final ClassLoader classLoader,
+		final int urlCount)
+	{
+		Snapshot current = snapshot;
+		if (current != null && current.urlCount == urlCount) return current;
+		synchronized (this) {
+			current = snapshot;
+			if (current != null && current.urlCount == urlCount) return current;
+			current = scan(classLoader);
+			snapshot = current;
+			return current;
+		}
+	}
+
+	/**
+	 * Counts the class path entries of a class loader and its parents, so that
+	 * additions to the class path can be detected.
+	 *
+	 * @return the number of entries, or -1 if the class loader or one of its
+	 *         parents cannot be enumerated
+	 */
+	private static int countURLs(final ClassLoader classLoader) {
+		int count = 0;
+		for (ClassLoader l = classLoader; l != null; l = l.getParent()) {
+			final URL[] urls = getURLs(l);
+			if (urls == null) return -1;
+			for (final URL url : urls) {
+				if (!"file".equals(url.getProtocol())) return -1;
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Determines where a class loader itself (without its parents) looks for
+	 * resources.
+	 *
+	 * @return the class path entries, or null if the class loader may find
+	 *         resources elsewhere
+	 */
+	private static URL[] getURLs(final ClassLoader l) {
+		final Class<?> c = l.getClass();
+		if (l instanceof URLClassLoader && isPlain(c)) {
+			return ((URLClassLoader) l).getURLs();
+		}
+		if (c.getName().equals(APP_LOADER)) {
+			// libraries in named modules are not on the class path
+			if (System.getProperty("jdk.module.path") != null) return null;
+			return getClassPath();
+		}
+		// the platform class loader only holds modules of the JDK
+		if (c.getName().equals(PLATFORM_LOADER)) return new URL[0];
+		return null;
+	}
+
+	/**
+	 * Checks whether a URLClassLoader looks up resources like the
+	 * URLClassLoader itself does; other subclasses may resolve them differently
+	 * (e.g. child first).
+	 */
+	private static boolean isPlain(final Class<?> loaderClass) {
+		Boolean plain = PLAIN_LOADERS.get(loaderClass);
+		if (plain == null) {
+			plain = Boolean.TRUE;
+			for (Class<?> c = loaderClass; c != URLClassLoader.class; c =
+				c.getSuperclass())
+			{
+				if (c.getName().startsWith("sun.misc.Launcher$")) break;
+				if (declares(c, "getResource") || declares(c, "findResource")) {
+					plain = Boolean.FALSE;
+					break;
+				}
+			}
+			PLAIN_LOADERS.put(loaderClass, plain);
+		}
+		return plain;
+	}
+
+	private static boolean declares(final Class<?> c, final String name) {
+		try {
+			c.getDeclaredMethod(name, String.class);
+			return true;
+		}
+		catch (final NoSuchMethodException e) {
+			return false;
+		}
+		catch (final SecurityException e) {
+			return true;
+		}
+	}
+
+	/** @return the entries of the java.class.path system property */
+	private static URL[] getClassPath() {
+		final String value = System.getProperty("java.class.path", "");
+		ClassPath current = classPath;
+		if (current == null || !current.value.equals(value)) {
+			final List<URL> urls = new ArrayList<URL>();
+			for (final String element : value.split(File.pathSeparator)) {
+				try {
+					// like the class loader, treat an empty element as "."
+					urls.add(new File(element).getAbsoluteFile().toURI().toURL());
+				}
+				catch (final MalformedURLException e) {
+					LOGGER.debug("Invalid class path entry " + element, e);
+				}
+			}
+			current = new ClassPath(value, urls.toArray(new URL[urls.size()]));
+			classPath = current;
+		}
+		return current.urls;
+	}
+
+	/**
+	 * @return whether the class path has been scanned, rather than the class
+	 *         loader being asked for each resource
+	 */
+	boolean isScanned() {
+		return snapshot != null;
+	}
+
+	private static Snapshot scan(final ClassLoader classLoader) {
+		final long start = System.currentTimeMillis();
+		// the class loader delegates to its parents first
+		final List<ClassLoader> chain = new ArrayList<ClassLoader>();
+		for (ClassLoader l = classLoader; l != null; l = l.getParent()) {
+			chain.add(l);
+		}
+		Collections.reverse(chain);
+
+		final Snapshot snapshot = new Snapshot();
+		final Set<String> visited = new HashSet<String>();
+		for (final ClassLoader l : chain) {
+			for (final URL url : getURLs(l)) {
+				snapshot.urlCount++;
+				scanURL(url, snapshot, visited);
+			}
+		}
+		LOGGER.debug("Indexed native libraries of " + snapshot.urlCount +
+			" class path entries in " + (System.currentTimeMillis() - start) + "ms");
+		return snapshot;
+	}
+
+	private static void scanURL(final URL url, final Snapshot snapshot,
+		final Set<String> visited)
+	{
+		if (!visited.add(url.toString())) return;
+		final File file = ZipEntryLocator.toFile(url.toString());
+		if (file == null) return;
+		// entries are numbered in the order in which the class loader searches
+		final int position = snapshot.positions++;
+		if (file.isDirectory()) {
+			snapshot.folders.add(new Folder(file, position));
+		}
+		else if (file.isFile()) {
+			try {
+				for (final URL classPathURL : scanJar(file, position,
+					snapshot.directories))
+				{
+					scanURL(classPathURL, snapshot, visited);
+				}
+			}
+			catch (final IOException e) {
+				LOGGER.debug("Could not index " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Adds the native libraries of a jar to the index.
+	 *
+	 * @return the entries of the jar's Class-Path manifest attribute, which the
+	 *         class loader searches right after the jar itself
+	 */
+	private static List<URL> scanJar(final File file, final int position,
+		final Map<String, Map<String, Entry>> directories) throws IOException
+	{
+		final URL jarURL = file.toURI().toURL();
+		final String base = "jar:" + jarURL + "!/";
+		final JarFile jar = new JarFile(file);
+		try {
+			final List<URL> classPath = new ArrayList<URL>();
+			final Manifest manifest = jar.getManifest();
+			final String value = manifest == null ? null :
+				manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+			if (value != null) {
+				for (final String element : value.trim().split("\\s+")) {
+					if (element.length() == 0) continue;
+					try {
+						final URL url = new URL(jarURL, element);
+						if ("file".equals(url.getProtocol())) classPath.add(url);
+					}
+					catch (final MalformedURLException e) {
+						LOGGER.debug("Invalid Class-Path entry in " + file, e);
+					}
+				}
+			}
+
+			final Enumeration<JarEntry> entries = jar.entries();
+			while (entries.hasMoreElements()) {
+				final JarEntry entry = entries.nextElement();
+				if (entry.isDirectory()) continue;
+				final String path = entry.getName();
+				final int slash = path.lastIndexOf('/');
+				final String name = path.substring(slash + 1);
+				if (!isIndexed(name)) continue;
+
+				final String directory = path.substring(0, slash + 1);
+				Map<String, Entry> files = directories.get(directory);
+				if (files == null) {
+					files = new HashMap<String, Entry>();
+					directories.put(directory, files);
+				}
+				// like the class loader, the first class path entry wins
+				if (files.containsKey(name)) continue;
+				try {
+					final String encoded = new URI(null, null, path, null).getRawPath();
+					files.put(name, new Entry(new URL(base + encoded), position));
+				}
+				catch (final URISyntaxException e) {
+					LOGGER.debug("Could not index " + path + " in " + file, e);
+				}
+			}
+			return classPath;
+		}
+		finally {
+			jar.close();
+		}
+	}
+
+	/** The scanned class path of a class loader. */
+	private static final class Snapshot {
+
+		/** number of class path entries of the class loaders */
+		int urlCount;
+		/** number of scanned jars and directories, including Class-Path ones */
+		int positions;
+		final Map<String, Map<String, Entry>> directories =
+			new HashMap<String, Map<String, Entry>>();
+		final List<Folder> folders = new ArrayList<Folder>();
+
+		URL getResource(final String directory, final String name) {
+			final Map<String, Entry> files = directories.get(directory);
+			final Entry entry = files == null ? null : files.get(name);
+			// directories which come before the jar take precedence
+			final int limit = entry == null ? positions : entry.position;
+			for (final Folder folder : folders) {
+				if (folder.position >= limit) break;
+				final File file = new File(folder.dir, directory + name);
+				if (file.isFile()) {
+					try {
+						return file.toURI().toURL();
+					}
+					catch (final MalformedURLException e) {
+						LOGGER.debug("Could not convert " + file, e);
+					}
+				}
+			}
+			return entry == null ? null : entry.url;
+		}
+	}
+
+	/** A value of java.class.path and its entries. */
+	private static final class ClassPath {
+
+		final String value;
+		final URL[] urls;
+
+		ClassPath(final String value, final URL[] urls) {
+			this.value = value;
+			this.urls = urls;
+		}
+	}
+
+	/** A library inside a jar on the class path. */
+	private static final class Entry {
+
+		final URL url;
+		final int position;
+
+		Entry(final URL url, final int position) {
+			this.url = url;
+			this.position = position;
+		}
+	}
+
+	/** A directory on the class path. */
+	private static final class Folder {
+
+		final File dir;
+		final int position;
+
+		Folder(final File dir, final int position) {
+			this.dir = dir;
+			this.position = position;
+		}
+	}
+}
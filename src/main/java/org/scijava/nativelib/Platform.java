@@ -0,0 +1,391 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.scijava.nativelib.NativeLibraryUtil.Architecture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Describes the platform the JVM runs on: operating system, architecture, C
+ * library and C++ runtime, CPU features, and the resource paths derived from
+ * them.
+ * <p>
+ * The platform is detected once, on the first call to {@link #current()}, and
+ * shared by all loaders and extractors. Instances are immutable; tests can
+ * pretend to run elsewhere with {@link #setCurrent(Platform)}.
+ */
+public final class Platform {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.Platform");
+
+	private static final Pattern LIBC =
+		Pattern.compile(".*/libc-(\\d+)\\.(\\d+)\\..*");
+	private static final Pattern LIBSTDCXX =
+		Pattern.compile(".*/libstdc\\+\\+\\.so\\.(\\d+)\\.0\\.(\\d+)");
+
+	private static enum Processor {
+		UNKNOWN, INTEL_32, INTEL_64, PPC, PPC_64, ARM, AARCH_64
+	}
+
+	private static volatile Platform current;
+
+	private final String osName;
+	private final String osArch;
+	private final Architecture architecture;
+	private final String libcVersion;
+	private final String cxxVersion;
+	private final String mxSysInfo;
+	private final String platformPath;
+	private final String libraryPrefix;
+	private final String librarySuffix;
+	private final List<String> variants;
+	private final List<String> resourcePaths;
+
+	/**
+	 * Describes a platform, as if detected from the given values.
+	 *
+	 * @param osName the operating system, as in the {@code os.name} property
+	 * @param osArch the JVM's architecture, as in the {@code os.arch} property
+	 * @param libcVersion the C library's version (e.g. {@code 2.17}), or null
+	 * @param cxxVersion the C++ runtime's version (e.g. {@code 6.0.19}), or
+	 *          null
+	 * @param mxSysInfo the mx.sysinfo string, or null to derive it from the
+	 *          other values
+	 */
+	public Platform(final String osName, final String osArch,
+		final String libcVersion, final String cxxVersion, final String mxSysInfo)
+	{
+		this(osName, osArch, libcVersion, cxxVersion, mxSysInfo, Collections
+			.<String> emptyList());
+	}
+
+	/**
+	 * Describes a platform, as if detected from the given values.
+	 *
+	 * @param osName the operating system, as in the {@code os.name} property
+	 * @param osArch the JVM's architecture, as in the {@code os.arch} property
+	 * @param libcVersion the C library's version (e.g. {@code 2.17}), or null
+	 * @param cxxVersion the C++ runtime's version (e.g. {@code 6.0.19}), or
+	 *          null
+	 * @param mxSysInfo the mx.sysinfo string, or null to derive it from the
+	 *          other values
+	 * @param variants the CPU-specific variant directories to prefer, best
+	 *          first (e.g. {@code avx512/}, {@code avx2/})
+	 */
+	public Platform(final String osName, final String osArch,
+		final String libcVersion, final String cxxVersion, final String mxSysInfo,
+		final List<String> variants)
+	{
+		this.osName = osName;
+		this.osArch = osArch;
+		this.architecture = architecture(osName.toLowerCase(), processor(osArch
+			.toLowerCase()));
+		this.libcVersion = libcVersion;
+		this.cxxVersion = cxxVersion;
+		this.mxSysInfo = mxSysInfo != null ? mxSysInfo : mxSysInfo(osName, osArch,
+			libcVersion, cxxVersion);
+		platformPath = architecture.name().toLowerCase() + NativeLibraryUtil.DELIM;
+
+		switch (architecture) {
+			case WINDOWS_32:
+			case WINDOWS_64:
+				libraryPrefix = "";
+				librarySuffix = ".dll";
+				break;
+			case OSX_32:
+			case OSX_64:
+			case OSX_ARM64:
+			case OSX_PPC:
+				libraryPrefix = "lib";
+				librarySuffix = ".dylib";
+				break;
+			case UNKNOWN:
+				libraryPrefix = null;
+				librarySuffix = null;
+				break;
+			default:
+				libraryPrefix = "lib";
+				librarySuffix = ".so";
+				break;
+		}
+
+		this.variants = Collections.unmodifiableList(new ArrayList<String>(
+			variants));
+		resourcePaths = Collections.unmodifiableList(Arrays.asList(
+			NativeLibraryUtil.DEFAULT_SEARCH_PATH, "META-INF/lib/" + this.mxSysInfo +
+				"/", "META-INF/lib/"));
+	}
+
+	/**
+	 * @return the platform the JVM runs on, or the one set with
+	 *         {@link #setCurrent(Platform)}
+	 */
+	public static Platform current() {
+		final Platform platform = current;
+		return platform != null ? platform : detectOnce();
+	}
+
+	private static synchronized Platform detectOnce() {
+		if (current == null) {
+			final long start = System.nanoTime();
+			current = detect();
+			NativeMetrics.platformDetected(current.getPlatformPath(), System
+				.nanoTime() - start);
+			LOGGER.debug("platform is " + current);
+		}
+		return current;
+	}
+
+	/**
+	 * Overrides the detected platform, e.g. to test the lookup of libraries for
+	 * other platforms.
+	 *
+	 * @param platform the platform to pretend to run on, or null to detect the
+	 *          actual one again
+	 */
+	public static synchronized void setCurrent(final Platform platform) {
+		current = platform;
+	}
+
+	/**
+	 * Detects the platform the JVM runs on, without caching the result.
+	 *
+	 * @return the detected platform
+	 */
+	public static Platform detect() {
+		final String osName = System.getProperty("os.name");
+		String libc = null, cxx = null;
+		if ("Linux".equals(osName)) {
+			libc = version(new File("/lib/libc.so.6"), LIBC, ".");
+			File libstdcxx = new File("/usr/lib/libstdc++.so.6");
+			if (!libstdcxx.exists()) libstdcxx = new File("/usr/lib/libstdc++.so.5");
+			cxx = version(libstdcxx, LIBSTDCXX, ".0.");
+		}
+		final String osArch = System.getProperty("os.arch");
+		final List<String> variants = CpuFeatures.detectVariants(architecture(
+			osName.toLowerCase(), processor(osArch.toLowerCase())));
+		return new Platform(osName, osArch, libc, cxx, System.getProperty(
+			"mx.sysinfo"), variants);
+	}
+
+	/**
+	 * Reads a version from the target of a library symlink.
+	 *
+	 * @return the two numbers matched by the pattern, joined by the separator,
+	 *         or null if the target does not match
+	 */
+	private static String version(final File symlink, final Pattern pattern,
+		final String separator)
+	{
+		try {
+			final Matcher matcher = pattern.matcher(symlink.getCanonicalPath());
+			if (matcher.matches()) {
+				return matcher.group(1) + separator + matcher.group(2);
+			}
+		}
+		catch (final IOException e) {
+			// fall through
+		}
+		return null;
+	}
+
+	/**
+	 * Computes the mx.sysinfo string, which encodes architecture, operating
+	 * system and, on Linux, the versions of the C library and C++ runtime.
+	 */
+	private static String mxSysInfo(final String osName, final String osArch,
+		final String libcVersion, final String cxxVersion)
+	{
+		String extra = "unknown";
+		if ("Linux".equals(osName) && libcVersion != null && cxxVersion != null) {
+			final String[] cxx = cxxVersion.split("\\.");
+			String cxxver;
+			if ("5".equals(cxx[0])) {
+				cxxver = "5";
+			}
+			else if ("6".equals(cxx[0])) {
+				cxxver = Integer.parseInt(cxx[2]) < 9 ? "6" : "6" + cxx[2];
+			}
+			else {
+				cxxver = cxx[0] + cxx[2];
+			}
+			extra = "c" + libcVersion.replace(".", "") + "cxx" + cxxver;
+		}
+		return osArch + "-" + osName + "-" + extra;
+	}
+
+	/**
+	 * Determines what processor is in use. Note that this is actually the
+	 * architecture of the installed JVM.
+	 */
+	private static Processor processor(final String arch) {
+		if (arch.contains("arm")) return Processor.ARM;
+		if (arch.contains("aarch64")) return Processor.AARCH_64;
+		if (arch.contains("ppc")) {
+			return arch.contains("64") ? Processor.PPC_64 : Processor.PPC;
+		}
+		if (arch.contains("86") || arch.contains("amd")) {
+			return arch.contains("64") ? Processor.INTEL_64 : Processor.INTEL_32;
+		}
+		return Processor.UNKNOWN;
+	}
+
+	private static Architecture architecture(final String name,
+		final Processor processor)
+	{
+		if (name.contains("nix") || name.contains("nux")) {
+			switch (processor) {
+				case INTEL_32: return Architecture.LINUX_32;
+				case INTEL_64: return Architecture.LINUX_64;
+				case ARM: return Architecture.LINUX_ARM;
+				case AARCH_64: return Architecture.LINUX_ARM64;
+				default: return Architecture.UNKNOWN;
+			}
+		}
+		if (name.contains("aix")) {
+			switch (processor) {
+				case PPC: return Architecture.AIX_32;
+				case PPC_64: return Architecture.AIX_64;
+				default: return Architecture.UNKNOWN;
+			}
+		}
+		if (name.contains("win")) {
+			switch (processor) {
+				case INTEL_32: return Architecture.WINDOWS_32;
+				case INTEL_64: return Architecture.WINDOWS_64;
+				default: return Architecture.UNKNOWN;
+			}
+		}
+		if (name.contains("mac")) {
+			switch (processor) {
+				case INTEL_32: return Architecture.OSX_32;
+				case INTEL_64: return Architecture.OSX_64;
+				case AARCH_64: return Architecture.OSX_ARM64;
+				case PPC: return Architecture.OSX_PPC;
+				default: return Architecture.UNKNOWN;
+			}
+		}
+		return Architecture.UNKNOWN;
+	}
+
+	/** @return the operating system, as in the {@code os.name} property */
+	public String getOsName() {
+		return osName;
+	}
+
+	/** @return the JVM's architecture, as in the {@code os.arch} property */
+	public String getOsArch() {
+		return osArch;
+	}
+
+	/** @return the combination of operating system and architecture */
+	public Architecture getArchitecture() {
+		return architecture;
+	}
+
+	/** @return the C library's version (e.g. {@code 2.17}), or null */
+	public String getLibcVersion() {
+		return libcVersion;
+	}
+
+	/** @return the C++ runtime's version (e.g. {@code 6.0.19}), or null */
+	public String getCxxVersion() {
+		return cxxVersion;
+	}
+
+	/**
+	 * @return the mx.sysinfo string, as given by the {@code mx.sysinfo}
+	 *         property or guessed from the other values
+	 */
+	public String getMxSysInfo() {
+		return mxSysInfo;
+	}
+
+	/**
+	 * @return the directory for the platform's libraries below a search path,
+	 *         e.g. {@code linux_64/}
+	 */
+	public String getPlatformPath() {
+		return platformPath;
+	}
+
+	/**
+	 * @return the subdirectories of the platform directory with builds for
+	 *         instruction set extensions this CPU supports, best first (e.g.
+	 *         {@code avx512/}, {@code avx2/}); the baseline build is in the
+	 *         platform directory itself
+	 */
+	public List<String> getVariants() {
+		return variants;
+	}
+
+	/**
+	 * @return the prefix of library file names (e.g. {@code lib}), or null on
+	 *         an unknown platform
+	 */
+	public String getLibraryPrefix() {
+		return libraryPrefix;
+	}
+
+	/**
+	 * @return the suffix of library file names (e.g. {@code .so}), or null on
+	 *         an unknown platform
+	 */
+	public String getLibrarySuffix() {
+		return librarySuffix;
+	}
+
+	/**
+	 * @return the resource directories which may hold registered libraries:
+	 *         {@code natives/}, {@code META-INF/lib/<mx.sysinfo>/} and
+	 *         {@code META-INF/lib/}
+	 */
+	public List<String> getResourcePaths() {
+		return resourcePaths;
+	}
+
+	@Override
+	public String toString() {
+		return architecture.name().toLowerCase() + " " + variants + " (" +
+			mxSysInfo + ")";
+	}
+}
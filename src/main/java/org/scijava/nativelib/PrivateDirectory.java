@@ -0,0 +1,185 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Directories which only the current user can access, for libraries kept at
+ * predictable paths in shared locations such as {@code /dev/shm}.
+ * <p>
+ * A directory qualifies if it is not a symbolic link, is owned by the user
+ * running the virtual machine, and (where the file system has POSIX
+ * permissions) grants nothing to group or others. Otherwise another user could
+ * have created it first, and planted libraries in it for this virtual machine
+ * to load. The checks need {@code java.nio.file}, i.e. Java 7; without it, no
+ * directory qualifies.
+ */
+final class PrivateDirectory {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.PrivateDirectory");
+
+	/** java.nio.file methods, where available */
+	private static final Method TO_PATH;
+	private static final Method IS_SYMBOLIC_LINK;
+	private static final Method GET_OWNER;
+	private static final Method GET_POSIX_PERMISSIONS;
+	private static final Object NO_FOLLOW;
+
+	static {
+		Method toPath = null;
+		Method isSymbolicLink = null;
+		Method getOwner = null;
+		Method getPosixPermissions = null;
+		Object noFollow = null;
+		try {
+			final Class<?> path = Class.forName("java.nio.file.Path");
+			final Class<?> files = Class.forName("java.nio.file.Files");
+			final Class<?> linkOption = Class.forName("java.nio.file.LinkOption");
+			final Class<?> linkOptions = Array.newInstance(linkOption, 0).getClass();
+			toPath = File.class.getMethod("toPath");
+			isSymbolicLink = files.getMethod("isSymbolicLink", path);
+			getOwner = files.getMethod("getOwner", path, linkOptions);
+			getPosixPermissions =
+				files.getMethod("getPosixFilePermissions", path, linkOptions);
+			noFollow = Array.newInstance(linkOption, 1);
+			Array.set(noFollow, 0, linkOption.getField("NOFOLLOW_LINKS").get(null));
+		}
+		catch (final Exception e) {
+			// Java 6: nothing can be checked
+			toPath = null;
+		}
+		TO_PATH = toPath;
+		IS_SYMBOLIC_LINK = isSymbolicLink;
+		GET_OWNER = getOwner;
+		GET_POSIX_PERMISSIONS = getPosixPermissions;
+		NO_FOLLOW = noFollow;
+	}
+
+	private PrivateDirectory() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Creates (if necessary) and checks the directory {@code <name>-<user>}.
+	 *
+	 * @param parent the directory to create it in, e.g. the extraction root
+	 * @param name the first part of the directory's name
+	 * @return the directory, or null if it is not private to the current user
+	 */
+	static File forUser(final File parent, final String name) {
+		final File dir = pathForUser(parent, name);
+		return create(dir) ? dir : null;
+	}
+
+	/**
+	 * @return the directory {@code <name>-<user>}, without creating or checking
+	 *         it
+	 */
+	static File pathForUser(final File parent, final String name) {
+		final String user = System.getProperty("user.name", "");
+		return new File(parent, name + "-" +
+			user.replaceAll("[^A-Za-z0-9._-]", "_"));
+	}
+
+	/**
+	 * Creates a directory accessible to the current user only, unless it exists
+	 * already, and checks that it is private.
+	 *
+	 * @return whether the directory exists and is private
+	 */
+	static boolean create(final File dir) {
+		if (dir.mkdirs()) {
+			// the owner regains what everybody loses
+			dir.setReadable(false, false);
+			dir.setWritable(false, false);
+			dir.setExecutable(false, false);
+			dir.setReadable(true, true);
+			dir.setWritable(true, true);
+			dir.setExecutable(true, true);
+		}
+		return isPrivate(dir);
+	}
+
+	/**
+	 * @return whether a directory exists and is private to the current user
+	 */
+	static boolean isPrivate(final File dir) {
+		if (TO_PATH == null) return false;
+		try {
+			final Object path = TO_PATH.invoke(dir);
+			if ((Boolean) IS_SYMBOLIC_LINK.invoke(null, path) || !dir.isDirectory()) {
+				return false;
+			}
+			final String owner = GET_OWNER.invoke(null, path, NO_FOLLOW).toString();
+			final String user = System.getProperty("user.name");
+			// Windows reports DOMAIN\\user
+			if (!owner.equals(user) && !owner.endsWith("\\" + user)) {
+				LOGGER.warn(dir + " belongs to " + owner + ", not to " + user);
+				return false;
+			}
+			final Set<?> permissions;
+			try {
+				permissions =
+					(Set<?>) GET_POSIX_PERMISSIONS.invoke(null, path, NO_FOLLOW);
+			}
+			catch (final InvocationTargetException e) {
+				// no POSIX permissions (e.g. on Windows): the owner has to do
+				if (e.getCause() instanceof UnsupportedOperationException) return true;
+				throw e;
+			}
+			for (final Object permission : permissions) {
+				final String p = permission.toString();
+				if (p.startsWith("GROUP_") || p.startsWith("OTHERS_")) {
+					LOGGER.warn(dir + " is accessible to other users");
+					return false;
+				}
+			}
+			return true;
+		}
+		catch (final InvocationTargetException e) {
+			LOGGER.debug("Cannot check " + dir, e.getCause());
+			return false;
+		}
+		catch (final IllegalAccessException e) {
+			LOGGER.debug("Cannot check " + dir, e);
+			return false;
+		}
+	}
+}
@@ -37,7 +37,15 @@
 package org.scijava.nativelib;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.security.MessageDigest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * JniExtractor suitable for multiple application deployments on the same
@@ -49,6 +57,27 @@ import java.io.IOException;
  * Works by extracting each library to a different location for each
  * classloader.
  * <p>
+ * All extractors of a user share one native directory,
+ * {@code nativelib-webapp-<user>} below the {@link #getExtractionRoot()
+ * extraction root}, which only that user may access. Its {@code store}
+ * subdirectory holds one copy of every library, named after the SHA-256 of its
+ * contents, and the classloader-specific subdirectories hold hard links to it
+ * (or copies, where the file system does not support links). Since the
+ * store's location does not depend on the classloader, nor even on the virtual
+ * machine, redeploying an application neither writes the libraries to disk
+ * again nor makes the operating system cache them twice. Libraries listed in a
+ * {@link NativeIndex} are not even extracted again; a stored copy is hashed
+ * once per virtual machine before it is used. Copies which have not been used
+ * for a day are removed by the leftover cleanup. Where the native directory
+ * cannot be made private (e.g. on Java 6), each copy of this class uses a
+ * temporary directory of its own instead.
+ * <p>
+ * An extractor should be {@link #close() closed} when its classloader is
+ * discarded, which deletes its subdirectory right away. The subdirectory of an
+ * extractor nobody closes is deleted once the extractor has been garbage
+ * collected, when the next extractor is created or closed (or when the
+ * virtual machine exits).
+ * <p>
  * WARNING: This can expose strange and wonderful bugs in jni code. These bugs
  * generally stem from transitive dependencies of the jni library and can be
  * solved by linking these dependencies statically to form a single library
@@ -57,8 +86,42 @@ import java.io.IOException;
  */
 public class WebappJniExtractor extends BaseJniExtractor {
 
+	private static final Logger LOGGER = LoggerFactory.getLogger(
+		"org.scijava.nativelib.WebappJniExtractor");
+	private static final String NATIVE_DIR_NAME = "nativelib-webapp";
+	private static final String STORE_DIR_NAME = "store";
+	/** stored libraries unused for longer are removed */
+	private static final long STORE_MAX_AGE = 24 * 60 * 60 * 1000;
+	/** how often the time of a stored library is updated while it is used */
+	private static final long STORE_TOUCH_INTERVAL = 60 * 60 * 1000;
+
+	/** java.nio.file.Files.createLink and File.toPath, where available */
+	private static final Method CREATE_LINK;
+	private static final Method TO_PATH;
+
+	static {
+		Method createLink = null;
+		Method toPath = null;
+		try {
+			final Class<?> path = Class.forName("java.nio.file.Path");
+			createLink = Class.forName("java.nio.file.Files").getMethod("createLink",
+				path, path);
+			toPath = File.class.getMethod("toPath");
+		}
+		catch (final Exception e) {
+			// Java 6: libraries are copied
+			createLink = null;
+		}
+		CREATE_LINK = createLink;
+		TO_PATH = toPath;
+	}
+
+	private static File sharedNativeDir;
+
 	private final File nativeDir;
+	private final File storeDir;
 	private final File jniSubDir;
+	private final DirectoryCleaner.Cleanup cleanup;
 
 	/**
 	 * @param classloaderName is a friendly name for your classloader which will
@@ -66,7 +129,7 @@ public class WebappJniExtractor extends BaseJniExtractor {
 	 *          subdirectory which will be created.
 	 */
 	public WebappJniExtractor(final String classloaderName) throws IOException {
-		nativeDir = getTempDir();
+		nativeDir = getSharedNativeDir();
 		// Order of operations is such thatwe do not error if we are racing with
 		// another thread to create the directory.
 		nativeDir.mkdirs();
@@ -74,6 +137,12 @@ public class WebappJniExtractor extends BaseJniExtractor {
 			throw new IOException(
 				"Unable to create native library working directory " + nativeDir);
 		}
+		storeDir = new File(nativeDir, STORE_DIR_NAME);
+		storeDir.mkdirs();
+		if (!storeDir.isDirectory()) {
+			throw new IOException(
+				"Unable to create native library store " + storeDir);
+		}
 
 		final long now = System.currentTimeMillis();
 		File trialJniSubDir;
@@ -91,16 +160,200 @@ public class WebappJniExtractor extends BaseJniExtractor {
 		}
 		jniSubDir = trialJniSubDir;
 		jniSubDir.deleteOnExit();
+		cleanup = DirectoryCleaner.register(this, jniSubDir);
 	}
 
+	/**
+	 * Deletes the classloader-specific subdirectory and the libraries in it.
+	 * Libraries cannot be extracted any more afterwards.
+	 */
 	@Override
-	protected void finalize() throws Throwable {
-		super.finalize();
-		final File[] files = jniSubDir.listFiles();
+	public void close() throws IOException {
+		try {
+			super.close();
+		}
+		finally {
+			cleanup.run();
+		}
+	}
+
+	private static synchronized File getSharedNativeDir() throws IOException {
+		if (sharedNativeDir == null) {
+			sharedNativeDir =
+				PrivateDirectory.forUser(getExtractionRoot(), NATIVE_DIR_NAME);
+			if (sharedNativeDir == null) {
+				LOGGER.debug("No private native directory; libraries are not " +
+					"shared with other class loaders");
+				sharedNativeDir = getTempDir();
+			}
+		}
+		return sharedNativeDir;
+	}
+
+	/**
+	 * Also removes the stored libraries which have not been used for a while.
+	 */
+	@Override
+	void deleteLeftoverFiles() {
+		super.deleteLeftoverFiles();
+		try {
+			pruneStore(new File(getSharedNativeDir(), STORE_DIR_NAME),
+				STORE_MAX_AGE);
+		}
+		catch (final IOException e) {
+			LOGGER.debug("Cannot prune the library store", e);
+		}
+	}
+
+	/**
+	 * Deletes the stored libraries (and temporary files) older than the given
+	 * age. Links to them stay intact.
+	 *
+	 * @return the number of deleted files
+	 */
+	static int pruneStore(final File storeDir, final long maxAge) {
+		final File[] files = storeDir.listFiles();
+		if (files == null) return 0;
+		final long oldest = System.currentTimeMillis() - maxAge;
+		int deleted = 0;
 		for (final File file : files) {
-			file.delete();
+			if (file.isFile() && file.lastModified() < oldest && file.delete()) {
+				deleted++;
+			}
+		}
+		return deleted;
+	}
+
+	@Override
+	File extractResource(final File dir, final URL resource,
+		final String outputName) throws IOException
+	{
+		if (cleanup.isDone()) {
+			throw new IOException("Extractor for " + jniSubDir + " is closed");
+		}
+		final File outfile = new File(jniSubDir, outputName);
+		final Object event = NativeEvents.EXTRACT.begin();
+		String outcome = "failed";
+		try {
+			final File stored = store(resource, outputName);
+			outcome = link(stored, outfile) ? "linked" : "copied";
+			LOGGER.debug("Using '" + stored.getAbsolutePath() + "' as '" +
+				outfile.getAbsolutePath() + "' (" + outcome + ")");
+		}
+		catch (final IOException e) {
+			outcome = NativeEvents.failed(e);
+			throw e;
+		}
+		finally {
+			if (event != null) {
+				NativeEvents.EXTRACT.commit(event, outputName, resource, outfile,
+					outfile.length(), outcome);
+			}
+		}
+
+		// note that this doesn't always work:
+		outfile.deleteOnExit();
+
+		return outfile;
+	}
+
+	/**
+	 * Makes sure the store holds the contents of a resource.
+	 *
+	 * @return the file in the store, named after the SHA-256 of its contents
+	 */
+	private File store(final URL resource, final String outputName)
+		throws IOException
+	{
+		// with a build-time index, the name is known without reading anything
+		final NativeIndex.Entry indexed = NativeIndex.getEntry(resource);
+		if (indexed != null) {
+			final File stored = new File(storeDir, indexed.sha256);
+			if (isStored(stored, indexed.size, indexed.sha256)) {
+				NativeMetrics.cacheHit(stored);
+				return stored;
+			}
+		}
+
+		// otherwise, the digest is computed while extracting
+		final File tmpfile = File.createTempFile(outputName, ".tmp", storeDir);
+		try {
+			final MessageDigest digest = DigestRecord.newDigest();
+			writeResource(getResourceProvider(), resource, tmpfile, digest);
+			final String sha256 = NativeIndex.hex(digest.digest());
+			final File stored = new File(storeDir, sha256);
+			// the stored copy is shared with other class loaders, so it is only
+			// preferred to the one just written if it is verifiably the same
+			if (isStored(stored, tmpfile.length(), sha256)) {
+				NativeMetrics.cacheHit(stored);
+				return stored;
+			}
+			NativeMetrics.cacheMiss(stored);
+			// files in the store are never modified in place, so that the links
+			// already made to them stay intact
+			if (!tmpfile.renameTo(stored)) {
+				stored.delete();
+				if (!tmpfile.renameTo(stored)) {
+					throw new IOException("Unable to move " + tmpfile + " to " + stored);
+				}
+			}
+			return stored;
+		}
+		finally {
+			if (tmpfile.exists()) tmpfile.delete();
+		}
+	}
+
+	/**
+	 * Checks that a stored library has the expected contents, and marks it as
+	 * used, so that it is not pruned.
+	 */
+	private static boolean isStored(final File stored, final long size,
+		final String sha256) throws IOException
+	{
+		if (!stored.isFile() || stored.length() != size) return false;
+		final long now = System.currentTimeMillis();
+		if (now - stored.lastModified() > STORE_TOUCH_INTERVAL) {
+			stored.setLastModified(now);
+		}
+		if (DigestRecord.verify(stored, sha256)) return true;
+		LOGGER.warn("'" + stored.getAbsolutePath() + "' does not match its name");
+		return false;
+	}
+
+	/**
+	 * Creates a hard link to a file, or copies it where links are unsupported,
+	 * e.g. across file systems. Whatever was at the link's path is replaced.
+	 *
+	 * @return true if a link was created, false if the file was copied
+	 */
+	static boolean link(final File existing, final File link)
+		throws IOException
+	{
+		// never write through an earlier link into the stored file
+		link.delete();
+		if (CREATE_LINK != null) {
+			try {
+				CREATE_LINK.invoke(null, TO_PATH.invoke(link), TO_PATH.invoke(existing));
+				return true;
+			}
+			catch (final InvocationTargetException e) {
+				LOGGER.debug("Cannot link " + link + " to " + existing +
+					", copying it", e.getCause());
+			}
+			catch (final IllegalAccessException e) {
+				LOGGER.debug("Cannot link " + link + " to " + existing +
+					", copying it", e);
+			}
+		}
+		final FileOutputStream out = new FileOutputStream(link);
+		try {
+			transfer(existing, 0, existing.length(), out.getChannel());
+		}
+		finally {
+			out.close();
 		}
-		jniSubDir.delete();
+		return false;
 	}
 
 	@Override
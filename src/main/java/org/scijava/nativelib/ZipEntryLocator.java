@@ -0,0 +1,239 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Locates the raw bytes of jar entries which are STORED (i.e. not compressed),
+ * so they can be transferred straight from the jar file without going through
+ * an {@link java.io.InputStream}.
+ * <p>
+ * Only the central directory of the jar is read; it is remembered for the most
+ * recently used jar, since libraries usually get extracted from the same jar
+ * one after another. ZIP64 archives are not supported; for those, as for
+ * compressed or encrypted entries, no range is reported and callers have to
+ * fall back to reading the resource as a stream.
+ */
+final class ZipEntryLocator {
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int CEN_SIGNATURE = 0x02014b50;
+	private static final int LOC_SIGNATURE = 0x04034b50;
+	private static final int EOCD_SIZE = 22;
+	private static final int CEN_SIZE = 46;
+	private static final int LOC_SIZE = 30;
+	private static final int MAX_COMMENT = 0xffff;
+	private static final long ZIP64_MAGIC = 0xffffffffL;
+
+	/** central directory of the most recently used jar */
+	private static volatile Directory lastDirectory;
+
+	private ZipEntryLocator() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * @param url a file: URL (or the file: part of a jar: URL)
+	 * @return the file it points to, or null if it cannot be converted
+	 */
+	static File toFile(final String url) {
+		try {
+			return new File(new URI(url));
+		}
+		catch (final Exception e) {
+			// not a hierarchical file: URI (e.g. it contains unescaped spaces)
+			return null;
+		}
+	}
+
+	/**
+	 * @param resource a resource on the classpath
+	 * @return the jar file which contains the resource, or null if the resource
+	 *         is not an entry of a local jar file
+	 */
+	static File getJarFile(final URL resource) {
+		if (!"jar".equals(resource.getProtocol())) return null;
+		final String path = resource.getPath();
+		final int separator = path.indexOf("!/");
+		if (separator < 0 || !path.startsWith("file:")) return null;
+		return toFile(path.substring(0, separator));
+	}
+
+	/**
+	 * Finds the location of a STORED entry inside a jar file.
+	 *
+	 * @param resource a jar: URL
+	 * @return the offset of the entry's data within the jar file and its size,
+	 *         or null if the entry is not STORED or cannot be located
+	 * @throws IOException if the jar file cannot be read
+	 */
+	static long[] findStoredEntry(final URL resource) throws IOException {
+		final File jar = getJarFile(resource);
+		if (jar == null) return null;
+		final String path = resource.getPath();
+		final String name = path.substring(path.indexOf("!/") + 2);
+		// entry names with escaped characters would need decoding first
+		if (name.indexOf('%') >= 0) return null;
+
+		final RandomAccessFile file = new RandomAccessFile(jar, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			final Directory directory = getDirectory(jar, channel);
+			if (directory == null) return null;
+			final long[] entry = directory.entries.get(name);
+			if (entry == null) return null;
+
+			// the local header has variable length fields of its own
+			final ByteBuffer header = read(channel, entry[0], LOC_SIZE);
+			if (header == null || header.getInt(0) != LOC_SIGNATURE) return null;
+			final long dataOffset = entry[0] + LOC_SIZE +
+				(header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+			if (dataOffset + entry[1] > channel.size()) return null;
+			return new long[] { dataOffset, entry[1] };
+		}
+		finally {
+			file.close();
+		}
+	}
+
+	private static Directory getDirectory(final File jar,
+		final FileChannel channel) throws IOException
+	{
+		final String path = jar.getAbsolutePath();
+		final long length = channel.size();
+		final long modified = jar.lastModified();
+		Directory directory = lastDirectory;
+		if (directory != null && directory.path.equals(path) &&
+			directory.length == length && directory.modified == modified)
+		{
+			return directory;
+		}
+		final Map<String, long[]> entries = readStoredEntries(channel);
+		if (entries == null) return null;
+		directory = new Directory(path, length, modified, entries);
+		lastDirectory = directory;
+		return directory;
+	}
+
+	/**
+	 * Reads the central directory and collects the local header offset and size
+	 * of every STORED, unencrypted entry.
+	 */
+	private static Map<String, long[]> readStoredEntries(
+		final FileChannel channel) throws IOException
+	{
+		final long size = channel.size();
+		final int tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT);
+		final ByteBuffer tail = read(channel, size - tailSize, tailSize);
+		if (tail == null) return null;
+		int eocd = -1;
+		for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+			if (tail.getInt(i) == EOCD_SIGNATURE) {
+				eocd = i;
+				break;
+			}
+		}
+		if (eocd < 0) return null;
+		final long cenSize = tail.getInt(eocd + 12) & ZIP64_MAGIC;
+		final long cenOffset = tail.getInt(eocd + 16) & ZIP64_MAGIC;
+		if (cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC ||
+			cenOffset + cenSize > size || cenSize > Integer.MAX_VALUE)
+		{
+			return null;
+		}
+
+		final ByteBuffer cen = read(channel, cenOffset, (int) cenSize);
+		if (cen == null) return null;
+		final Map<String, long[]> entries = new HashMap<String, long[]>();
+		int pos = 0;
+		while (pos + CEN_SIZE <= cenSize && cen.getInt(pos) == CEN_SIGNATURE) {
+			final int flags = cen.getShort(pos + 8) & 0xffff;
+			final int method = cen.getShort(pos + 10) & 0xffff;
+			final long compressed = cen.getInt(pos + 20) & ZIP64_MAGIC;
+			final long uncompressed = cen.getInt(pos + 24) & ZIP64_MAGIC;
+			final int nameLength = cen.getShort(pos + 28) & 0xffff;
+			final int extraLength = cen.getShort(pos + 30) & 0xffff;
+			final int commentLength = cen.getShort(pos + 32) & 0xffff;
+			final long localOffset = cen.getInt(pos + 42) & ZIP64_MAGIC;
+			if (method == 0 && (flags & 1) == 0 && compressed == uncompressed &&
+				compressed != ZIP64_MAGIC && localOffset != ZIP64_MAGIC &&
+				pos + CEN_SIZE + nameLength <= cenSize)
+			{
+				final byte[] name = new byte[nameLength];
+				cen.position(pos + CEN_SIZE);
+				cen.get(name);
+				entries.put(new String(name, "UTF-8"), new long[] { localOffset,
+					compressed });
+			}
+			pos += CEN_SIZE + nameLength + extraLength + commentLength;
+		}
+		return entries;
+	}
+
+	private static ByteBuffer read(final FileChannel channel, final long offset,
+		final int length) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, offset + buffer.position()) < 0) return null;
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	private static final class Directory {
+
+		final String path;
+		final long length;
+		final long modified;
+		final Map<String, long[]> entries;
+
+		Directory(final String path, final long length, final long modified,
+			final Map<String, long[]> entries)
+		{
+			this.path = path;
+			this.length = length;
+			this.modified = modified;
+			this.entries = entries;
+		}
+	}
+}
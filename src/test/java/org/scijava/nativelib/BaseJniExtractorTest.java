@@ -0,0 +1,335 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+public class BaseJniExtractorTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	// Creates a temporary jar holding the given bytes as a stored and as a
+	// deflated entry
+	private File createJar(final byte[] content) throws IOException {
+		final File jar = tmpTestDir.newFile("dummy.jar");
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		JarOutputStream target = null;
+		try {
+			target = new JarOutputStream(new FileOutputStream(jar), manifest);
+
+			final CRC32 crc = new CRC32();
+			crc.update(content);
+			final JarEntry stored = new JarEntry("natives/stored/libdummy.so");
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(content.length);
+			stored.setCompressedSize(content.length);
+			stored.setCrc(crc.getValue());
+			target.putNextEntry(stored);
+			target.write(content);
+			target.closeEntry();
+
+			target.putNextEntry(new JarEntry("natives/deflated/libdummy.so"));
+			target.write(content);
+			target.closeEntry();
+		}
+		finally {
+			if (target != null) { target.close(); }
+		}
+		return jar;
+	}
+
+	private static byte[] read(final File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final byte[] buffer = new byte[(int) file.length()];
+			int offset = 0;
+			while (offset < buffer.length) {
+				final int len = in.read(buffer, offset, buffer.length - offset);
+				if (len < 0) break;
+				offset += len;
+			}
+			return buffer;
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	private static URL entry(final File jar, final String name)
+		throws IOException
+	{
+		return new URL("jar:" + jar.toURI().toURL() + "!/" + name);
+	}
+
+	@Test
+	public void testExtractStoredAndDeflatedEntries() throws Exception {
+		// larger than the copy buffer, so that it takes several rounds
+		final byte[] content = new byte[1024 * 1024 + 17];
+		new Random(42).nextBytes(content);
+		final File jar = createJar(content);
+		final URL stored = entry(jar, "natives/stored/libdummy.so");
+		final URL deflated = entry(jar, "natives/deflated/libdummy.so");
+
+		assertNotNull(ZipEntryLocator.findStoredEntry(stored));
+		assertNull(ZipEntryLocator.findStoredEntry(deflated));
+
+		final File out = tmpTestDir.newFile("libdummy.so");
+		BaseJniExtractor.writeResource(stored, out);
+		assertEquals(content.length, out.length());
+		assertArrayEquals(content, read(out));
+
+		BaseJniExtractor.writeResource(deflated, out);
+		assertEquals(content.length, out.length());
+		assertArrayEquals(content, read(out));
+
+		// both ways, the digest is computed on the way through
+		final String expected = DigestRecord.hash(out);
+		for (final URL resource : new URL[] { stored, deflated }) {
+			final MessageDigest digest = DigestRecord.newDigest();
+			BaseJniExtractor.writeResource(resource, out, digest);
+			assertEquals(expected, NativeIndex.hex(digest.digest()));
+		}
+	}
+
+	@Test
+	public void testConcurrentWritesToSameFile() throws Exception {
+		final byte[] content = new byte[1024 * 1024 + 17];
+		new Random(42).nextBytes(content);
+		final URL deflated =
+			entry(createJar(content), "natives/deflated/libdummy.so");
+		final File out = tmpTestDir.newFile("libdummy.so");
+
+		// interleaved writes would leave holes where one truncated the file
+		// while another was writing further on
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final List<Future<Void>> writes = new ArrayList<Future<Void>>();
+			for (int i = 0; i < 16; i++) {
+				writes.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws IOException {
+						BaseJniExtractor.writeResource(deflated, out);
+						return null;
+					}
+				}));
+			}
+			for (final Future<Void> write : writes) {
+				write.get();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		assertArrayEquals(content, read(out));
+	}
+
+	@Test
+	public void testExtractCompressedLibrary() throws Exception {
+		final File classes = tmpTestDir.newFolder("classes");
+		final File dir = new File(classes, "natives/compressed");
+		final File lib = new File(dir, System.mapLibraryName("dummy") + ".gz");
+		dir.mkdirs();
+		final GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(lib));
+		try {
+			out.write("native-lib-loader".getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+
+		final URLClassLoader loader = createClassLoader(classes);
+		try {
+			final DefaultJniExtractor extractor = new DefaultJniExtractor(
+				loader.loadClass(BaseJniExtractor.class.getName()));
+			// compressed files are never used in place
+			extractor.setLoadInPlace(true);
+			final File extracted = extractor.extractJni("natives/compressed", "dummy");
+			assertEquals(System.mapLibraryName("dummy"), extracted.getName());
+			assertEquals(extractor.getJniDir(), extracted.getParentFile());
+			assertEquals("native-lib-loader", new String(read(extracted), "UTF-8"));
+		}
+		finally {
+			loader.close();
+		}
+	}
+
+	@Test
+	public void testLoadInPlaceFromDirectory() throws Exception {
+		// put a dummy library into a classes directory
+		final File classes = tmpTestDir.newFolder("classes");
+		final File dir = new File(classes, "natives/inplace");
+		final File lib = new File(dir, System.mapLibraryName("dummy"));
+		dir.mkdirs();
+		write(lib, "native-lib-loader");
+
+		final URLClassLoader loader = createClassLoader(classes);
+		try {
+			final DefaultJniExtractor extractor = new DefaultJniExtractor(
+				loader.loadClass(BaseJniExtractor.class.getName()));
+			final File copied = extractor.extractJni("natives/inplace", "dummy");
+			assertEquals(extractor.getJniDir(), copied.getParentFile());
+
+			extractor.setLoadInPlace(true);
+			final File inPlace = extractor.extractJni("natives/inplace", "dummy");
+			assertEquals(lib.getCanonicalFile(), inPlace.getCanonicalFile());
+		}
+		finally {
+			loader.close();
+		}
+	}
+
+	@Test
+	public void testExtractRegisteredReportsAllFailures() throws Exception {
+		// register three libraries in a classes directory, one missing
+		final File classes = tmpTestDir.newFolder("classes");
+		final File dir = new File(classes, "natives");
+		final String[] names = { "libone.so", "libtwo.so", "libthree.so" };
+		dir.mkdirs();
+		write(new File(dir, "AUTOEXTRACT.LIST"),
+			"libone.so\nlibmissing.so\nlibtwo.so\nlibthree.so\n");
+		for (final String name : names) {
+			write(new File(dir, name), name);
+		}
+
+		// registered libraries are looked up by the extractor's own class loader
+		final URLClassLoader loader = createClassLoader(classes);
+		try {
+			final Class<?> c = loader.loadClass(DefaultJniExtractor.class.getName());
+			final Object extractor =
+				c.getConstructor(Class.class).newInstance((Class<?>) null);
+			try {
+				c.getMethod("extractRegistered").invoke(extractor);
+				fail("missing library not reported");
+			}
+			catch (final InvocationTargetException e) {
+				assertTrue(e.getCause() instanceof IOException);
+				assertTrue(e.getCause().getMessage().contains("libmissing.so"));
+			}
+			final File nativeDir = (File) c.getMethod("getNativeDir").invoke(
+				extractor);
+			for (final String name : names) {
+				assertEquals(name, new String(read(new File(nativeDir, name)),
+					"UTF-8"));
+			}
+			((Closeable) extractor).close();
+		}
+		finally {
+			loader.close();
+		}
+	}
+
+	@Test
+	public void testLeftoverCleanupStopsAtBudget() throws Exception {
+		final File tmp = tmpTestDir.newFolder("tmp");
+		final File leftover = new File(tmp, "nativelib-loader_leftover");
+		leftover.mkdir();
+		write(new File(leftover, "libleftover.so"), "leftover");
+		leftover.setLastModified(System.currentTimeMillis() - 60 * 60 * 1000);
+
+		final DefaultJniExtractor extractor = new DefaultJniExtractor(null);
+		try {
+			System.setProperty("org.scijava.nativelib.cleanupBudgetMs", "0");
+			extractor.deleteLeftoverFiles(tmp);
+			assertTrue(leftover.exists());
+
+			System.clearProperty("org.scijava.nativelib.cleanupBudgetMs");
+			extractor.deleteLeftoverFiles(tmp);
+			assertFalse(leftover.exists());
+		}
+		finally {
+			System.clearProperty("org.scijava.nativelib.cleanupBudgetMs");
+			extractor.getJniDir().delete();
+		}
+	}
+
+	// Creates a class loader which finds resources in the given directory and
+	// has its own copy of native-lib-loader
+	private static URLClassLoader createClassLoader(final File classes)
+		throws IOException
+	{
+		return new URLClassLoader(new URL[] { classes.toURI().toURL(),
+			location(BaseJniExtractor.class), location(LoggerFactory.class) }, null);
+	}
+
+	private static URL location(final Class<?> c) {
+		return c.getProtectionDomain().getCodeSource().getLocation();
+	}
+
+	private static void write(final File file, final String content)
+		throws IOException
+	{
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.scijava.nativelib.TestJars.createJar;
+import static org.scijava.nativelib.TestJars.read;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CachingJniExtractorTest {
+
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	@Test
+	public void testWarmStartReusesCachedFile() throws Exception {
+		final File cacheDir = tmpTestDir.newFolder("cache");
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "native-lib-loader");
+
+		final File extracted = new CachingJniExtractor(null, cacheDir)
+			.extractResource(cacheDir, lib, "libdummy.so");
+		assertEquals("native-lib-loader", read(extracted));
+
+		// a fresh extractor, as after a JVM restart, must not copy again
+		final long modified = extracted.lastModified();
+		final File cached = new CachingJniExtractor(null, cacheDir)
+			.extractResource(cacheDir, lib, "libdummy.so");
+		assertEquals(extracted, cached);
+		assertEquals(modified, cached.lastModified());
+	}
+
+	@Test
+	public void testStaleCachedFileIsReplaced() throws Exception {
+		final File cacheDir = tmpTestDir.newFolder("cache");
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "native-lib-loader");
+		final CachingJniExtractor extractor =
+			new CachingJniExtractor(null, cacheDir);
+
+		final File extracted =
+			extractor.extractResource(cacheDir, lib, "libdummy.so");
+		final FileOutputStream out = new FileOutputStream(extracted);
+		out.write("trunc".getBytes("UTF-8"));
+		out.close();
+
+		final File again = extractor.extractResource(cacheDir, lib, "libdummy.so");
+		assertEquals("native-lib-loader", read(again));
+	}
+
+	@Test
+	public void testTamperedCachedFileIsReplaced() throws Exception {
+		final File cacheDir = tmpTestDir.newFolder("cache");
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "native-lib-loader");
+		final CachingJniExtractor extractor =
+			new CachingJniExtractor(null, cacheDir);
+
+		final File extracted =
+			extractor.extractResource(cacheDir, lib, "libdummy.so");
+		final DigestRecord record = DigestRecord.read(extracted);
+		assertEquals(DigestRecord.hash(extracted), record.sha256);
+
+		// same size and time: only the digest tells
+		final FileOutputStream out = new FileOutputStream(extracted);
+		out.write("NATIVE-LIB-LOADER".getBytes("UTF-8"));
+		out.close();
+		extracted.setLastModified(record.lastModified);
+
+		System.setProperty(DigestRecord.VERIFY_DIGEST, "true");
+		try {
+			final File again =
+				extractor.extractResource(cacheDir, lib, "libdummy.so");
+			assertEquals("native-lib-loader", read(again));
+		}
+		finally {
+			System.clearProperty(DigestRecord.VERIFY_DIGEST);
+		}
+	}
+
+	@Test
+	public void testForgedRecordIsNotTrusted() throws Exception {
+		final File cacheDir = tmpTestDir.newFolder("cache");
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "native-lib-loader");
+		final CachingJniExtractor extractor =
+			new CachingJniExtractor(null, cacheDir);
+		final File extracted =
+			extractor.extractResource(cacheDir, lib, "libdummy.so");
+		final DigestRecord record = DigestRecord.read(extracted);
+
+		// whoever replaces the library can write a matching record, too
+		final FileOutputStream out = new FileOutputStream(extracted);
+		out.write("NATIVE-LIB-LOADER".getBytes("UTF-8"));
+		out.close();
+		extracted.setLastModified(record.lastModified);
+		new DigestRecord(record.size, record.lastModified, record.sha256).write(
+			extracted);
+
+		final File again =
+			extractor.extractResource(cacheDir, lib, "libdummy.so");
+		assertEquals("native-lib-loader", read(again));
+	}
+
+	@Test
+	public void testMetricsCountCacheHitsAndMisses() throws Exception {
+		final File cacheDir = tmpTestDir.newFolder("cache");
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "native-lib-loader");
+		final NativeMetricsAggregator metrics = new NativeMetricsAggregator();
+		NativeMetrics.register(metrics);
+		try {
+			final CachingJniExtractor extractor =
+				new CachingJniExtractor(null, cacheDir);
+			extractor.extractResource(cacheDir, lib, "libdummy.so");
+			extractor.extractResource(cacheDir, lib, "libdummy.so");
+		}
+		finally {
+			NativeMetrics.unregister(metrics);
+		}
+		assertEquals(1, metrics.getCacheMisses());
+		assertEquals(1, metrics.getCacheHits());
+		assertEquals(1, metrics.getCount(NativeMetricsAggregator.Phase.EXTRACTION));
+		assertEquals("native-lib-loader".length(), metrics.getBytesExtracted());
+	}
+
+	@Test
+	public void testConcurrentExtractionWritesOnce() throws Exception {
+		final File cacheDir = tmpTestDir.newFolder("cache");
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "native-lib-loader");
+		final NativeMetricsAggregator metrics = new NativeMetricsAggregator();
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		NativeMetrics.register(metrics);
+		try {
+			final List<Future<File>> futures = new ArrayList<Future<File>>();
+			for (int i = 0; i < 8; i++) {
+				futures.add(executor.submit(new Callable<File>() {
+
+					@Override
+					public File call() throws IOException {
+						// one extractor each, as in separate JVMs
+						return new CachingJniExtractor(null, cacheDir).extractResource(
+							cacheDir, lib, "libdummy.so");
+					}
+				}));
+			}
+			final File first = futures.get(0).get();
+			for (final Future<File> future : futures) {
+				assertEquals(first, future.get());
+			}
+			assertEquals("native-lib-loader", read(first));
+		}
+		finally {
+			NativeMetrics.unregister(metrics);
+			executor.shutdown();
+		}
+		assertEquals(1, metrics.getCacheMisses());
+		assertEquals(1, metrics.getCount(NativeMetricsAggregator.Phase.EXTRACTION));
+	}
+
+	@Test
+	public void testDifferentJarsUseDifferentDirectories() throws Exception {
+		final URL first = createJar(tmpTestDir, "first.jar", "one");
+		final URL second = createJar(tmpTestDir, "second.jar", "two");
+		assertFalse(CachingJniExtractor.getBundleKey(first).equals(
+			CachingJniExtractor.getBundleKey(second)));
+		assertEquals(CachingJniExtractor.getBundleKey(first),
+			CachingJniExtractor.getBundleKey(first));
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.scijava.nativelib.NativeLibraryUtil.Architecture;
+
+public class CpuFeaturesTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	private File cpuinfo(final String content) throws IOException {
+		final File file = tmpTestDir.newFile("cpuinfo");
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("US-ASCII"));
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+
+	private static Set<String> flags(final String... flags) {
+		return new HashSet<String>(Arrays.asList(flags));
+	}
+
+	@Test
+	public void testReadX86Flags() throws Exception {
+		final File file = cpuinfo("processor\t: 0\n" +
+			"model name\t: Some CPU\n" +
+			"flags\t\t: fpu sse2 avx avx2 fma bmi1 bmi2\n\n" +
+			"processor\t: 1\n" +
+			"flags\t\t: fpu\n");
+		final Set<String> flags = CpuFeatures.readFlags(file);
+		assertTrue(flags.contains("avx2"));
+		assertEquals(Arrays.asList("avx2/"), CpuFeatures.getVariants(
+			Architecture.LINUX_64, flags));
+	}
+
+	@Test
+	public void testReadArmFeatures() throws Exception {
+		final File file = cpuinfo("processor\t: 0\n" +
+			"Features\t: fp asimd evtstrm aes crc32\n");
+		assertEquals(Arrays.asList("neon/"), CpuFeatures.getVariants(
+			Architecture.LINUX_ARM64, CpuFeatures.readFlags(file)));
+	}
+
+	@Test
+	public void testVariantsBestFirst() {
+		assertEquals(Arrays.asList("avx512/", "avx2/"), CpuFeatures.getVariants(
+			Architecture.LINUX_64, flags("avx", "avx2", "bmi1", "bmi2", "fma",
+				"avx512f", "avx512bw", "avx512cd", "avx512dq", "avx512vl")));
+		// AVX2 without FMA is not enough
+		assertEquals(Collections.emptyList(), CpuFeatures.getVariants(
+			Architecture.LINUX_64, flags("avx", "avx2", "bmi1", "bmi2")));
+		assertEquals(Collections.emptyList(), CpuFeatures.getVariants(
+			Architecture.WINDOWS_64, flags("avx", "avx2", "bmi1", "bmi2", "fma")));
+	}
+
+	@Test
+	public void testParseVariants() {
+		assertEquals(Arrays.asList("avx2/", "sse4/"), CpuFeatures.parseVariants(
+			" avx2, sse4/ ,"));
+		assertEquals(Collections.emptyList(), CpuFeatures.parseVariants(""));
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DirectoryCleanerTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	@Test
+	public void testUnreachableOwnersAreCleanedUp() throws Exception {
+		final File closed = tmpTestDir.newFolder("closed");
+		final File forgotten = tmpTestDir.newFolder("forgotten");
+		final Object owner = new Object();
+		final DirectoryCleaner.Cleanup cleanup =
+			DirectoryCleaner.register(owner, closed);
+		DirectoryCleaner.register(new Object(), forgotten);
+
+		cleanup.run();
+		assertFalse(closed.exists());
+
+		// the other cleanup runs once its owner is collected
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (forgotten.exists() && System.currentTimeMillis() < deadline) {
+			System.gc();
+			Thread.sleep(50);
+			DirectoryCleaner.expunge();
+		}
+		assertFalse(forgotten.exists());
+		// the first owner stays reachable; its cleanup ran explicitly
+		assertNotNull(owner);
+	}
+
+	@Test
+	public void testNoThreadWaitsForReachableOwners() throws Exception {
+		final Object owner = new Object();
+		final DirectoryCleaner.Cleanup cleanup =
+			DirectoryCleaner.register(owner, tmpTestDir.newFolder("kept"));
+		assertTrue(DirectoryCleaner.countPending() > 0);
+		for (final Thread thread : threads()) {
+			assertFalse(thread.getName().startsWith("native-lib-dir-cleaner"));
+		}
+		cleanup.run();
+		assertNotNull(owner);
+	}
+
+	private static Thread[] threads() {
+		final Thread[] threads = new Thread[Thread.activeCount() + 16];
+		final int count = Thread.enumerate(threads);
+		final Thread[] result = new Thread[count];
+		System.arraycopy(threads, 0, result, 0, count);
+		return result;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeNotNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ElfDependencyLoaderTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	private File createFile(final String name) throws IOException {
+		final File file = tmpTestDir.newFile(name);
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write("native-lib-loader".getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+
+	// Finds the JVM's own libjava.so, which needs libjvm.so
+	private static File findLibJava() {
+		final File home = new File(System.getProperty("java.home"));
+		for (final String path : new String[] { "lib/libjava.so",
+			"lib/amd64/libjava.so", "lib/aarch64/libjava.so" })
+		{
+			final File file = new File(home, path);
+			if (file.isFile()) return file;
+		}
+		return null;
+	}
+
+	@Test
+	public void testReadNeeded() throws Exception {
+		final File libjava = findLibJava();
+		assumeNotNull(libjava);
+		final ElfDynamicSection elf = ElfDynamicSection.read(libjava);
+		assertTrue(elf.getNeeded().contains("libjvm.so"));
+	}
+
+	@Test
+	public void testNotElf() throws Exception {
+		assertNull(ElfDynamicSection.read(createFile("libdummy.so")));
+	}
+
+	@Test
+	public void testMalformedSectionHeaders() throws Exception {
+		final File libjava = findLibJava();
+		assumeNotNull(libjava);
+		final File lib = tmpTestDir.newFile("libmalformed.so");
+		final FileInputStream in = new FileInputStream(libjava);
+		final FileOutputStream out = new FileOutputStream(lib);
+		try {
+			final byte[] buffer = new byte[65536];
+			for (int len; (len = in.read(buffer)) > 0;) {
+				out.write(buffer, 0, len);
+			}
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+
+		// a section header size of 1 (e_shentsize, little endian)
+		final boolean is64 = read(lib, 4) == 2;
+		final RandomAccessFile raf = new RandomAccessFile(lib, "rw");
+		try {
+			raf.seek(is64 ? 0x3a : 0x2e);
+			raf.write(new byte[] { 1, 0 });
+		}
+		finally {
+			raf.close();
+		}
+		try {
+			ElfDynamicSection.read(lib);
+			fail("malformed section headers not reported");
+		}
+		catch (final IOException e) {
+			assertTrue(e.getMessage().contains("section header size"));
+		}
+	}
+
+	private static int read(final File file, final int offset)
+		throws IOException
+	{
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			raf.seek(offset);
+			return raf.read();
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	@Test
+	public void testRejectedLoadsAreStillDone() throws Exception {
+		final File first = createFile("libfirst.so");
+		final File second = createFile("libsecond.so");
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		try {
+			new ElfDependencyLoader(executor).load(Arrays.asList(first, second));
+			fail("dummy libraries cannot be loaded");
+		}
+		catch (final IOException e) {
+			assertTrue(e.getMessage().contains("libfirst.so"));
+			assertTrue(e.getMessage().contains("libsecond.so"));
+		}
+	}
+
+	@Test
+	public void testDependentsOfFailedLibraryAreSkipped() throws Exception {
+		final File first = createFile("libfirst.so");
+		final File second = createFile("libsecond.so");
+		try {
+			new ElfDependencyLoader(null).load(Arrays.asList(first, second));
+			fail("dummy libraries cannot be loaded");
+		}
+		catch (final IOException e) {
+			assertTrue(e.getMessage().contains("libfirst.so"));
+			assertTrue(e.getMessage().contains(
+				"libsecond.so: dependency libfirst.so failed to load"));
+		}
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExtractionRootTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	private File mounts(final String content) throws IOException {
+		final File file = tmpTestDir.newFile();
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("US-ASCII"));
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+
+	@Test
+	public void testNoExecMountIsSkipped() throws IOException {
+		final File shm = tmpTestDir.newFolder("shm");
+		final File fallback = tmpTestDir.newFolder("fallback");
+		final String path = shm.getCanonicalPath();
+		final File mounts = mounts("/dev/root / ext4 rw 0 0\n" +
+			"tmpfs " + path + " tmpfs rw,nosuid,nodev,noexec 0 0\n");
+
+		assertEquals("mounted noexec", ExtractionRoot.check(shm, mounts));
+		assertEquals(fallback, ExtractionRoot.choose(Arrays.asList(shm), fallback,
+			mounts));
+
+		// a later mount over the same point hides the earlier one
+		final File remounted = mounts("/dev/root / ext4 rw 0 0\n" +
+			"tmpfs " + path + " tmpfs rw,noexec 0 0\n" +
+			"tmpfs " + path + " tmpfs rw,nosuid 0 0\n");
+		assertNull(ExtractionRoot.check(shm, remounted));
+	}
+
+	@Test
+	public void testFirstUsableCandidateIsChosen() throws IOException {
+		final File missing = new File(tmpTestDir.getRoot(), "missing");
+		final File shm = tmpTestDir.newFolder("shm");
+		final File fallback = tmpTestDir.newFolder("fallback");
+		final File mounts = mounts("/dev/root / ext4 rw 0 0\n");
+
+		assertEquals("not a directory", ExtractionRoot.check(missing, mounts));
+		assertEquals(shm, ExtractionRoot.choose(Arrays.asList(missing, shm),
+			fallback, mounts));
+		// without a readable mount table, execution is assumed to be allowed
+		assertEquals(shm, ExtractionRoot.choose(Arrays.asList(shm), fallback,
+			new File(tmpTestDir.getRoot(), "no-mounts")));
+	}
+}
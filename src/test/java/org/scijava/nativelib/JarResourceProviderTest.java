@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JarResourceProviderTest {
+
+	private static final String ENTRY = "natives/with space/libdummy+1.so";
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	private void writeJar(final File jar, final String content)
+		throws IOException
+	{
+		final JarOutputStream target =
+			new JarOutputStream(new FileOutputStream(jar));
+		try {
+			target.putNextEntry(new JarEntry(ENTRY));
+			target.write(content.getBytes("UTF-8"));
+			target.closeEntry();
+		}
+		finally {
+			target.close();
+		}
+	}
+
+	private static String read(final ResourceProvider provider, final URL url)
+		throws IOException
+	{
+		final InputStream in = Channels.newInputStream(provider.open(url));
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[1024];
+			for (int len; (len = in.read(buffer)) > 0;) {
+				out.write(buffer, 0, len);
+			}
+			return out.toString("UTF-8");
+		}
+		finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testReadsEscapedEntryNames() throws Exception {
+		final File jar = tmpTestDir.newFile("dummy.jar");
+		writeJar(jar, "native-lib-loader");
+		// as the class loader would report it
+		final URL url = new URL("jar:" + jar.toURI().toURL() + "!/" +
+			ENTRY.replace(" ", "%20"));
+
+		final JarResourceProvider provider = new JarResourceProvider();
+		assertEquals("native-lib-loader", read(provider, url));
+		assertEquals("native-lib-loader", read(provider, url));
+
+		// after closing, the URL is used
+		provider.close();
+		assertEquals("native-lib-loader", read(provider, url));
+	}
+
+	@Test
+	public void testReplacedJarIsReopened() throws Exception {
+		final File jar = tmpTestDir.newFile("dummy.jar");
+		writeJar(jar, "one");
+		final URL url = new URL("jar:" + jar.toURI().toURL() + "!/" +
+			ENTRY.replace(" ", "%20"));
+		final JarResourceProvider provider = new JarResourceProvider();
+		try {
+			assertEquals("one", read(provider, url));
+
+			writeJar(jar, "second");
+			jar.setLastModified(jar.lastModified() - 10000);
+			assertEquals("second", read(provider, url));
+		}
+		finally {
+			provider.close();
+		}
+	}
+
+	@Test
+	public void testReplacedJarIsClosedAfterItsReaders() throws Exception {
+		final File jar = tmpTestDir.newFile("dummy.jar");
+		writeJar(jar, "one");
+		final URL url = new URL("jar:" + jar.toURI().toURL() + "!/" +
+			ENTRY.replace(" ", "%20"));
+		final JarResourceProvider provider = new JarResourceProvider();
+		try {
+			final InputStream first = Channels.newInputStream(provider.open(url));
+			// replaced by a new file, as a build would
+			final File replacement = tmpTestDir.newFile("replacement.jar");
+			writeJar(replacement, "second");
+			assertTrue(replacement.renameTo(jar));
+			assertEquals("second", read(provider, url));
+			// the replaced jar file stays open for its reader
+			assertEquals(2, provider.countOpenJars());
+			assertEquals('o', first.read());
+			first.close();
+			assertEquals(1, provider.countOpenJars());
+
+			writeJar(jar, "third");
+			jar.setLastModified(jar.lastModified() - 20000);
+			assertEquals("third", read(provider, url));
+			assertEquals(1, provider.countOpenJars());
+		}
+		finally {
+			provider.close();
+		}
+		assertEquals(0, provider.countOpenJars());
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.scijava.nativelib.TestJars.createJar;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NativeEventsTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	@Test
+	public void testNothingIsRecordedWithoutRecording() {
+		assertNull(NativeEvents.EXTRACT.begin());
+		// must be harmless
+		NativeEvents.EXTRACT.commit(null, "libdummy.so", null, null, 0, "failed");
+	}
+
+	@Test
+	public void testExtractionIsRecorded() throws Exception {
+		// the flight recorder is only accessible by reflection here
+		Class<?> recordingClass = null;
+		try {
+			recordingClass = Class.forName("jdk.jfr.Recording");
+		}
+		catch (final ClassNotFoundException e) {
+			Assume.assumeNoException(e);
+		}
+
+		final URL lib = createJar(tmpTestDir, "dummy.jar",
+			"native-lib-loader");
+
+		final Object recording = recordingClass.getConstructor().newInstance();
+		recordingClass.getMethod("enable", String.class).invoke(recording,
+			"org.scijava.nativelib.Extract");
+		recordingClass.getMethod("start").invoke(recording);
+		final DefaultJniExtractor extractor = new DefaultJniExtractor(null);
+		final File extracted;
+		try {
+			extracted =
+				extractor.extractResource(extractor.getJniDir(), lib, "libdummy.so");
+		}
+		finally {
+			recordingClass.getMethod("stop").invoke(recording);
+		}
+
+		final Object path = File.class.getMethod("toPath").invoke(
+			tmpTestDir.newFile("recording.jfr"));
+		final Class<?> pathClass = Class.forName("java.nio.file.Path");
+		recordingClass.getMethod("dump", pathClass).invoke(recording, path);
+		recordingClass.getMethod("close").invoke(recording);
+		final List<?> events = (List<?>) Class.forName(
+			"jdk.jfr.consumer.RecordingFile").getMethod("readAllEvents", pathClass)
+			.invoke(null, path);
+
+		final List<Object> extractions = new ArrayList<Object>();
+		for (final Object event : events) {
+			final Object type = event.getClass().getMethod("getEventType").invoke(
+				event);
+			if ("org.scijava.nativelib.Extract".equals(type.getClass().getMethod(
+				"getName").invoke(type))) extractions.add(event);
+		}
+		assertEquals(1, extractions.size());
+		final Object event = extractions.get(0);
+		final Method getString = event.getClass().getMethod("getString",
+			String.class);
+		assertEquals("libdummy.so", getString.invoke(event, "libraryName"));
+		assertEquals(lib.toString(), getString.invoke(event, "source"));
+		assertEquals(extracted.toString(), getString.invoke(event, "target"));
+		assertEquals("extracted", getString.invoke(event, "outcome"));
+		assertEquals((long) "native-lib-loader".length(), event.getClass()
+			.getMethod("getLong", String.class).invoke(event, "bytes"));
+
+		extracted.delete();
+		extractor.getJniDir().delete();
+	}
+}
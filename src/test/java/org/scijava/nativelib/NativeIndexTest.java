@@ -0,0 +1,195 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NativeIndexTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		final File root = tmpTestDir.newFolder("classes");
+		final File lib = new File(root, "natives/linux_64/libdummy.so");
+		lib.getParentFile().mkdirs();
+		final FileOutputStream out = new FileOutputStream(lib);
+		out.write("native-lib-loader".getBytes("UTF-8"));
+		out.close();
+
+		final File index = NativeIndex.write(root);
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+			new FileInputStream(index), "UTF-8"));
+		try {
+			assertTrue(reader.readLine().startsWith("#"));
+			assertEquals("natives/linux_64/libdummy.so 17 " +
+				Long.toHexString(crc("native-lib-loader")) + " " +
+				NativeIndex.hex(MessageDigest.getInstance("SHA-256")
+					.digest("native-lib-loader".getBytes("UTF-8"))), reader.readLine());
+			assertNull(reader.readLine());
+		}
+		finally {
+			reader.close();
+		}
+
+		final URLClassLoader loader =
+			new URLClassLoader(new URL[] { root.toURI().toURL() }, null);
+		final NativeIndex nativeIndex = NativeIndex.forClassLoader(loader);
+		final URL url = nativeIndex.getResource("natives/linux_64/libdummy.so");
+		assertEquals(loader.getResource("natives/linux_64/libdummy.so"), url);
+		assertNull(nativeIndex.getResource("natives/linux_64/libother.so"));
+
+		final NativeIndex.Entry entry = NativeIndex.getEntry(url);
+		assertNotNull(entry);
+		assertEquals(17, entry.size);
+		assertEquals(32, entry.bundleKey.length());
+	}
+
+	@Test
+	public void testRemovedLibraryIsNotResolved() throws Exception {
+		final File root = tmpTestDir.newFolder("classes");
+		final File lib = write(root, "natives/linux_64/libdummy.so");
+		NativeIndex.write(root);
+
+		final URLClassLoader loader =
+			new URLClassLoader(new URL[] { root.toURI().toURL() }, null);
+		final NativeIndex nativeIndex = NativeIndex.forClassLoader(loader);
+		final URL url = nativeIndex.getResource("natives/linux_64/libdummy.so");
+		assertNotNull(url);
+
+		lib.delete();
+		assertNull(nativeIndex.getResource("natives/linux_64/libdummy.so"));
+		assertNull(NativeIndex.getEntry(url));
+	}
+
+	@Test
+	public void testChangedJarIsReadAgain() throws Exception {
+		final File first = tmpTestDir.newFolder("first");
+		write(first, "natives/linux_64/libone.so");
+		NativeIndex.write(first);
+		final File jar = tmpTestDir.newFile("dummy.jar");
+		pack(first, jar);
+
+		final URLClassLoader loader =
+			new URLClassLoader(new URL[] { jar.toURI().toURL() }, null);
+		final NativeIndex nativeIndex = NativeIndex.forClassLoader(loader);
+		final URL one = nativeIndex.getResource("natives/linux_64/libone.so");
+		assertNotNull(NativeIndex.getEntry(one));
+		assertNull(nativeIndex.getResource("natives/linux_64/libtwo.so"));
+
+		// a new version of the jar, with another library
+		final File second = tmpTestDir.newFolder("second");
+		write(second, "natives/linux_64/libtwo.so");
+		NativeIndex.write(second);
+		pack(second, jar);
+		jar.setLastModified(jar.lastModified() - 10000);
+
+		assertNull(nativeIndex.getResource("natives/linux_64/libone.so"));
+		assertNull(NativeIndex.getEntry(one));
+		final URL two = nativeIndex.getResource("natives/linux_64/libtwo.so");
+		assertNotNull(two);
+		assertNotNull(NativeIndex.getEntry(two));
+	}
+
+	private static File write(final File root, final String path)
+		throws Exception
+	{
+		final File file = new File(root, path);
+		file.getParentFile().mkdirs();
+		final FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(path.getBytes("UTF-8"));
+		}
+		finally {
+			out.close();
+		}
+		return file;
+	}
+
+	// Packs the files of a directory into a jar
+	private static void pack(final File root, final File jar) throws Exception {
+		final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+		try {
+			pack(root, "", out);
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static void pack(final File dir, final String prefix,
+		final JarOutputStream out) throws Exception
+	{
+		for (final File file : dir.listFiles()) {
+			if (file.isDirectory()) {
+				pack(file, prefix + file.getName() + "/", out);
+				continue;
+			}
+			out.putNextEntry(new JarEntry(prefix + file.getName()));
+			final FileInputStream in = new FileInputStream(file);
+			try {
+				final byte[] buffer = new byte[(int) file.length()];
+				in.read(buffer);
+				out.write(buffer);
+			}
+			finally {
+				in.close();
+			}
+			out.closeEntry();
+		}
+	}
+
+	private static long crc(final String content) throws Exception {
+		final CRC32 crc = new CRC32();
+		crc.update(content.getBytes("UTF-8"));
+		return crc.getValue();
+	}
+}
@@ -32,6 +32,11 @@ package org.scijava.nativelib;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Test;
 
 public class NativeLibraryUtilTest {
@@ -43,4 +48,31 @@ public class NativeLibraryUtilTest {
 				"native-lib-loader");
 		assertEquals("native-lib-loader", versionedLibraryName);
 	}
+
+	@Test
+	public void testVariantsAreTriedBeforeBaseline() throws Exception {
+		Platform.setCurrent(new Platform("Linux", "amd64", null, null, null,
+			Arrays.asList("avx512/", "avx2/")));
+		final List<String> requested = new ArrayList<String>();
+		try {
+			NativeLibraryUtil.loadNativeLibrary(new JniExtractor() {
+
+				@Override
+				public File extractJni(final String libPath, final String libname) {
+					requested.add(libPath);
+					return null;
+				}
+
+				@Override
+				public void extractRegistered() {
+					// nothing registered
+				}
+			}, "dummy");
+		}
+		finally {
+			Platform.setCurrent(null);
+		}
+		assertEquals(Arrays.asList("natives/linux_64/avx512/",
+			"natives/linux_64/avx2/", "natives/linux_64/"), requested.subList(0, 3));
+	}
 }
@@ -30,7 +30,12 @@
 
 package org.scijava.nativelib;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -39,11 +44,22 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.*;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
 
 public class NativeLoaderTest {
 
@@ -88,6 +104,31 @@ public class NativeLoaderTest {
 		// expect IOException, because this lib does not exist
 	}
 
+	@Test
+	public void testFailedLoadIsNotRemembered() throws Exception {
+		for (int i = 0; i < 2; i++) {
+			try {
+				NativeLoader.loadLibrary("mylib");
+				fail("mylib does not exist");
+			}
+			catch (final IOException e) {
+				assertFalse(NativeLoader.isLoaded("mylib"));
+			}
+		}
+	}
+
+	@Test
+	public void testLoadAsync() throws Exception {
+		final Future<Void> load = NativeLoader.loadLibraryAsync("mylib");
+		try {
+			load.get();
+			fail("mylib does not exist");
+		}
+		catch (final ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
 	@Test
 	public void testExtracting() throws Exception {
 		// NB: one may want to find a way to remove the used (deleted) jars from
@@ -110,4 +151,252 @@ public class NativeLoaderTest {
 			if (in != null) { in.close(); }
 		}
 	}
+
+	@Test
+	public void testLoadLibrariesReportsEachLibrary() throws Exception {
+		final File notALibrary = tmpTestDir.newFile("libfirst.so");
+		final List<String> lookups = new ArrayList<String>();
+		final JniExtractor original = NativeLoader.getJniExtractor();
+		NativeLoader.setJniExtractor(new JniExtractor() {
+
+			@Override
+			public File extractJni(final String libPath, final String libname) {
+				lookups.add(libname);
+				return libname.equals("first") ? notALibrary : null;
+			}
+
+			@Override
+			public void extractRegistered() {
+				// nothing registered
+			}
+		});
+		try {
+			final List<LoadResult> results =
+				NativeLoader.loadLibraries("first", "second");
+			assertEquals(2, results.size());
+			assertEquals("first", results.get(0).getLibraryName());
+			assertEquals("second", results.get(1).getLibraryName());
+			// found but not loadable, and not found at all
+			assertFalse(results.get(0).isLoaded());
+			assertTrue(results.get(0).getError()
+				.getCause() instanceof UnsatisfiedLinkError);
+			assertFalse(results.get(1).isLoaded());
+			assertNull(results.get(1).getFile());
+			assertFalse(NativeLoader.isLoaded("first"));
+
+			// the first directory was tried for both, and then only "second" was
+			// looked for
+			assertEquals("first", lookups.get(0));
+			assertEquals("second", lookups.get(1));
+			assertEquals(0, lookups.lastIndexOf("first"));
+			assertTrue(lookups.size() > 2);
+		}
+		finally {
+			NativeLoader.setJniExtractor(original);
+		}
+	}
+
+	@Test
+	public void testLoadLibrariesSurvivesRuntimeExceptions() throws Exception {
+		final JniExtractor original = NativeLoader.getJniExtractor();
+		NativeLoader.setJniExtractor(new JniExtractor() {
+
+			@Override
+			public File extractJni(final String libPath, final String libname) {
+				throw new IllegalStateException("broken extractor");
+			}
+
+			@Override
+			public void extractRegistered() {
+				// nothing registered
+			}
+		});
+		try {
+			final List<LoadResult> results = NativeLoader.loadLibraries("broken");
+			assertFalse(results.get(0).isLoaded());
+			assertTrue(results.get(0).getError()
+				.getCause() instanceof IllegalStateException);
+
+			// the failed load must not keep later callers waiting
+			final Future<Void> again = NativeLoader.loadLibraryAsync("broken");
+			try {
+				again.get(10, TimeUnit.SECONDS);
+				fail("broken cannot be loaded");
+			}
+			catch (final ExecutionException e) {
+				assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+			assertFalse(NativeLoader.loadLibraries("broken").get(0).isLoaded());
+		}
+		finally {
+			NativeLoader.setJniExtractor(original);
+		}
+	}
+
+	@Test
+	public void testConcurrentLoadsShareExtraction() throws Exception {
+		final CountingExtractor extractor = new CountingExtractor(copyJdkLibrary());
+		final JniExtractor original = NativeLoader.getJniExtractor();
+		NativeLoader.setJniExtractor(extractor);
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final List<Future<Void>> loads = new ArrayList<Future<Void>>();
+			for (int i = 0; i < 8; i++) {
+				loads.add(executor.submit(new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						NativeLoader.loadLibrary("shared");
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (final Future<Void> load : loads) {
+				load.get(10, TimeUnit.SECONDS);
+			}
+			assertEquals(1, extractor.extractions.get());
+			assertTrue(NativeLoader.isLoaded("shared"));
+		}
+		finally {
+			executor.shutdown();
+			NativeLoader.setJniExtractor(original);
+		}
+	}
+
+	@Test
+	public void testLoadAsyncSucceeds() throws Exception {
+		final CountingExtractor extractor = new CountingExtractor(copyJdkLibrary());
+		final JniExtractor original = NativeLoader.getJniExtractor();
+		NativeLoader.setJniExtractor(extractor);
+		try {
+			final Future<Void> load = NativeLoader.loadLibraryAsync("async");
+			assertNull(load.get(10, TimeUnit.SECONDS));
+			assertTrue(NativeLoader.isLoaded("async"));
+			assertEquals(1, extractor.extractions.get());
+		}
+		finally {
+			NativeLoader.setJniExtractor(original);
+		}
+	}
+
+	// Copies a small library of the JDK, which can be loaded from anywhere
+	private File copyJdkLibrary() throws IOException {
+		final File library = new File(System.getProperty("sun.boot.library.path"),
+			System.mapLibraryName("j2gss"));
+		assumeTrue(library.isFile());
+		final File copy = tmpTestDir.newFile(library.getName());
+		final FileInputStream in = new FileInputStream(library);
+		final FileOutputStream out = new FileOutputStream(copy);
+		try {
+			final byte[] buffer = new byte[65536];
+			for (int len; (len = in.read(buffer)) > 0;) {
+				out.write(buffer, 0, len);
+			}
+		}
+		finally {
+			in.close();
+			out.close();
+		}
+		return copy;
+	}
+
+	/** "Extracts" every library as the same file, counting the extractions. */
+	@Test
+	public void testReentrantLoadReturns() throws Exception {
+		final File library = copyJdkLibrary();
+		final JniExtractor original = NativeLoader.getJniExtractor();
+		// like a JNI_OnLoad which loads its own library again
+		NativeLoader.setJniExtractor(new CountingExtractor(library) {
+
+			@Override
+			public File extractJni(final String libPath, final String libname) {
+				try {
+					NativeLoader.loadLibrary("reentrant");
+				}
+				catch (final IOException e) {
+					throw new IllegalStateException(e);
+				}
+				return super.extractJni(libPath, libname);
+			}
+		});
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			executor.submit(new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					NativeLoader.loadLibrary("reentrant");
+					return null;
+				}
+			}).get(10, TimeUnit.SECONDS);
+			assertTrue(NativeLoader.isLoaded("reentrant"));
+		}
+		finally {
+			executor.shutdownNow();
+			NativeLoader.setJniExtractor(original);
+		}
+	}
+
+	private static class CountingExtractor implements JniExtractor {
+
+		final File library;
+		final AtomicInteger extractions = new AtomicInteger();
+
+		CountingExtractor(final File library) {
+			this.library = library;
+		}
+
+		@Override
+		public File extractJni(final String libPath, final String libname) {
+			extractions.incrementAndGet();
+			// give concurrent callers time to pile up
+			try {
+				Thread.sleep(100);
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return library;
+		}
+
+		@Override
+		public void extractRegistered() {
+			// nothing registered
+		}
+	}
+
+	@Test
+	public void testLibraryOnLibraryPathNeedsNoExtractor() throws Exception {
+		// a library of the JDK, which System.loadLibrary finds
+		final String library = "j2pkcs11";
+		assumeTrue(new File(System.getProperty("sun.boot.library.path"),
+			System.mapLibraryName(library)).isFile());
+
+		// a copy of the NativeLoader of its own, which no other test has used
+		final URLClassLoader loader = new URLClassLoader(new URL[] {
+			location(NativeLoader.class), location(LoggerFactory.class) }, null);
+		try {
+			final Class<?> c = loader.loadClass(NativeLoader.class.getName());
+			final Method isExtractorCreated =
+				c.getDeclaredMethod("isExtractorCreated");
+			isExtractorCreated.setAccessible(true);
+			assertFalse((Boolean) isExtractorCreated.invoke(null));
+
+			c.getMethod("loadLibrary", String.class, String[].class).invoke(null,
+				library, new String[0]);
+			assertTrue((Boolean) c.getMethod("isLoaded", String.class).invoke(null,
+				library));
+			assertFalse((Boolean) isExtractorCreated.invoke(null));
+		}
+		finally {
+			loader.close();
+		}
+	}
+
+	private static URL location(final Class<?> c) {
+		return c.getProtectionDomain().getCodeSource().getLocation();
+	}
 }
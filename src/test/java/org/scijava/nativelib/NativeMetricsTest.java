@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+public class NativeMetricsTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	@Test
+	public void testServiceListenersNeedOptIn() throws Exception {
+		final File services = tmpTestDir.newFolder("services");
+		final File file = new File(services,
+			"META-INF/services/" + NativeMetricsListener.class.getName());
+		file.getParentFile().mkdirs();
+		final FileOutputStream out = new FileOutputStream(file);
+		out.write((NativeMetricsAggregator.class.getName() + "\n")
+			.getBytes("UTF-8"));
+		out.close();
+
+		assertEquals(0, countListeners(services));
+		System.setProperty(NativeMetrics.METRICS_SERVICES, "true");
+		try {
+			assertEquals(1, countListeners(services));
+		}
+		finally {
+			System.clearProperty(NativeMetrics.METRICS_SERVICES);
+		}
+	}
+
+	// Counts the listeners of a fresh copy of NativeMetrics
+	private static int countListeners(final File services) throws Exception {
+		final URLClassLoader loader = new URLClassLoader(new URL[] {
+			services.toURI().toURL(), location(NativeMetrics.class),
+			location(LoggerFactory.class) }, null);
+		try {
+			final Class<?> c = loader.loadClass(NativeMetrics.class.getName());
+			return ((List<?>) c.getMethod("getListeners").invoke(null)).size();
+		}
+		finally {
+			loader.close();
+		}
+	}
+
+	private static URL location(final Class<?> c) {
+		return c.getProtectionDomain().getCodeSource().getLocation();
+	}
+}
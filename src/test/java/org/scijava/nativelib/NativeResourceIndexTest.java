@@ -0,0 +1,174 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NativeResourceIndexTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	// Creates a temporary jar with the given (empty) entries
+	private File createJar(final String name, final String... entries)
+		throws IOException
+	{
+		final File jar = tmpTestDir.newFile(name);
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		JarOutputStream target = null;
+		try {
+			target = new JarOutputStream(new FileOutputStream(jar), manifest);
+			for (final String entry : entries) {
+				target.putNextEntry(new JarEntry(entry));
+				target.closeEntry();
+			}
+		}
+		finally {
+			if (target != null) { target.close(); }
+		}
+		return jar;
+	}
+
+	private static URL url(final File file) throws IOException {
+		return file.toURI().toURL();
+	}
+
+	@Test
+	public void testLookupMatchesClassLoader() throws Exception {
+		final File first = createJar("first.jar", "natives/linux_64/libone.so");
+		final File second = createJar("second.jar", "natives/linux_64/libone.so",
+			"natives/linux_64/libtwo.so", "libroot.so");
+		final URLClassLoader loader =
+			new URLClassLoader(new URL[] { url(first), url(second) }, null);
+		final NativeResourceIndex index =
+			NativeResourceIndex.forClassLoader(loader);
+
+		for (final String path : new String[] { "natives/linux_64/libone.so",
+			"natives/linux_64/libtwo.so", "libroot.so" })
+		{
+			assertNotNull(index.getResource(path));
+			assertEquals(loader.getResource(path), index.getResource(path));
+		}
+		assertNull(index.getResource("natives/linux_64/libthree.so"));
+		assertNull(index.getResource("natives/osx_64/libone.dylib"));
+	}
+
+	@Test
+	public void testDirectoriesAndLaterAdditions() throws Exception {
+		final File dir = tmpTestDir.newFolder("classes");
+		final File jar = createJar("dummy.jar", "natives/linux_64/libone.so");
+		final ExtensibleClassLoader loader =
+			new ExtensibleClassLoader(url(dir), url(jar));
+		final NativeResourceIndex index =
+			NativeResourceIndex.forClassLoader(loader);
+		assertEquals(loader.getResource("natives/linux_64/libone.so"),
+			index.getResource("natives/linux_64/libone.so"));
+		assertNull(index.getResource("natives/linux_64/libtwo.so"));
+		assertTrue(index.isScanned());
+
+		// a file which appears in a directory on the class path is found
+		final File lib = new File(dir, "natives/linux_64/libone.so");
+		lib.getParentFile().mkdirs();
+		lib.createNewFile();
+		assertEquals(url(lib), index.getResource("natives/linux_64/libone.so"));
+
+		// and so is a jar added to the class path
+		final File added = createJar("added.jar", "natives/linux_64/libtwo.so");
+		loader.addURL(url(added));
+		assertEquals(loader.getResource("natives/linux_64/libtwo.so"),
+			index.getResource("natives/linux_64/libtwo.so"));
+	}
+
+	@Test
+	public void testHitsDoNotEnumerateClassPath() throws Exception {
+		final File jar = createJar("hit.jar", "natives/linux_64/libone.so");
+		final ExtensibleClassLoader loader = new ExtensibleClassLoader(url(jar));
+		final NativeResourceIndex index =
+			NativeResourceIndex.forClassLoader(loader);
+		assertNotNull(index.getResource("natives/linux_64/libone.so"));
+		final int enumerations = loader.enumerations;
+		assertNotNull(index.getResource("natives/linux_64/libone.so"));
+		assertEquals(enumerations, loader.enumerations);
+
+		// a miss checks for class path additions
+		assertNull(index.getResource("natives/linux_64/libtwo.so"));
+		assertTrue(loader.enumerations > enumerations);
+	}
+
+	@Test
+	public void testSystemClassLoaderIsScanned() {
+		// on Java 9 and later, it is not a URLClassLoader
+		final NativeResourceIndex index =
+			NativeResourceIndex.forClassLoader(ClassLoader.getSystemClassLoader());
+		assertNull(index.getResource("natives/linux_64/libmissing.so"));
+		assertTrue(index.isScanned());
+	}
+
+	/** A URLClassLoader which lets everybody add to its class path. */
+	private static class ExtensibleClassLoader extends URLClassLoader {
+
+		/** how often the class path was asked for */
+		int enumerations;
+
+		ExtensibleClassLoader(final URL... urls) {
+			super(urls, null);
+		}
+
+		@Override
+		public URL[] getURLs() {
+			enumerations++;
+			return super.getURLs();
+		}
+
+		@Override
+		public void addURL(final URL url) {
+			super.addURL(url);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class PlatformTest {
+
+	@After
+	public void tearDown() {
+		Platform.setCurrent(null);
+	}
+
+	@Test
+	public void testDetectedOnce() {
+		final Platform platform = Platform.current();
+		assertSame(platform, Platform.current());
+		assertEquals(System.getProperty("os.name"), platform.getOsName());
+		assertEquals(System.getProperty("os.arch"), platform.getOsArch());
+		assertEquals(platform.getArchitecture(), NativeLibraryUtil
+			.getArchitecture());
+	}
+
+	@Test
+	public void testMxSysInfo() {
+		assertEquals("amd64-Linux-c217cxx619", new Platform("Linux", "amd64",
+			"2.17", "6.0.19", null).getMxSysInfo());
+		assertEquals("amd64-Linux-c212cxx6", new Platform("Linux", "amd64",
+			"2.12", "6.0.8", null).getMxSysInfo());
+		assertEquals("amd64-Linux-unknown", new Platform("Linux", "amd64", null,
+			null, null).getMxSysInfo());
+		assertEquals("x86-Windows 10-unknown", new Platform("Windows 10", "x86",
+			null, null, null).getMxSysInfo());
+	}
+
+	@Test
+	public void testOverride() {
+		Platform.setCurrent(new Platform("Windows 10", "amd64", null, null,
+			"custom"));
+		assertEquals(NativeLibraryUtil.Architecture.WINDOWS_64, NativeLibraryUtil
+			.getArchitecture());
+		assertEquals("natives/windows_64/", NativeLibraryUtil
+			.getPlatformLibraryPath(NativeLibraryUtil.DEFAULT_SEARCH_PATH));
+		assertEquals("foo.dll", NativeLibraryUtil.getPlatformLibraryName("foo"));
+		assertEquals("custom", MxSysInfo.getMxSysInfo());
+		assertEquals("META-INF/lib/custom/", Platform.current().getResourcePaths()
+			.get(1));
+
+		Platform.setCurrent(new Platform("Mac OS X", "aarch64", null, null, null));
+		assertEquals("libfoo.dylib", NativeLibraryUtil.getPlatformLibraryName(
+			"foo"));
+		assertEquals("osx_arm64/", Platform.current().getPlatformPath());
+	}
+}
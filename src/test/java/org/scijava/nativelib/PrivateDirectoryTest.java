@@ -0,0 +1,98 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PrivateDirectoryTest {
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	@Test
+	public void testCreatedDirectoryIsPrivate() throws Exception {
+		final File dir = PrivateDirectory.forUser(tmpTestDir.getRoot(), "test");
+		assertNotNull(dir);
+		assertTrue(dir.isDirectory());
+		assumeTrue(isPosix(dir));
+		assertEquals(PosixFilePermissions.fromString("rwx------"), Files
+			.getPosixFilePermissions(dir.toPath()));
+	}
+
+	@Test
+	public void testSharedDirectoryIsRejected() throws Exception {
+		final File dir = tmpTestDir.newFolder("shared");
+		assumeTrue(isPosix(dir));
+		Files.setPosixFilePermissions(dir.toPath(), PosixFilePermissions
+			.fromString("rwxrwxrwx"));
+		assertFalse(PrivateDirectory.create(dir));
+
+		Files.setPosixFilePermissions(dir.toPath(), PosixFilePermissions
+			.fromString("rwx------"));
+		assertTrue(PrivateDirectory.create(dir));
+	}
+
+	@Test
+	public void testSymbolicLinkIsRejected() throws Exception {
+		final File target = tmpTestDir.newFolder("target");
+		assumeTrue(isPosix(target));
+		Files.setPosixFilePermissions(target.toPath(), PosixFilePermissions
+			.fromString("rwx------"));
+		final File link = new File(tmpTestDir.getRoot(), "link");
+		Files.createSymbolicLink(link.toPath(), target.toPath());
+		assertFalse(PrivateDirectory.create(link));
+	}
+
+	private static boolean isPosix(final File file) {
+		try {
+			final Set<PosixFilePermission> permissions =
+				Files.getPosixFilePermissions(file.toPath());
+			return permissions != null;
+		}
+		catch (final Exception e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import org.junit.rules.TemporaryFolder;
+
+/** Jars with a dummy library in them, for testing the extractors. */
+final class TestJars {
+
+	/** the path of the dummy library inside the jars */
+	static final String ENTRY = "natives/test/libdummy.so";
+
+	private TestJars() {
+		// prevent instantiation of utility class
+	}
+
+	/**
+	 * Creates a temporary jar with a dummy library in it.
+	 *
+	 * @return the URL of the library inside the jar
+	 */
+	static URL createJar(final TemporaryFolder folder, final String name,
+		final String content) throws IOException
+	{
+		final File jar = folder.newFile(name);
+		final Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		JarOutputStream target = null;
+		try {
+			target = new JarOutputStream(new FileOutputStream(jar), manifest);
+			final JarEntry entry = new JarEntry(ENTRY);
+			entry.setTime(System.currentTimeMillis());
+			target.putNextEntry(entry);
+			final byte[] buffer = content.getBytes("UTF-8");
+			target.write(buffer, 0, buffer.length);
+			target.closeEntry();
+		}
+		finally {
+			if (target != null) { target.close(); }
+		}
+		return new URL("jar:" + jar.toURI().toURL() + "!/" + ENTRY);
+	}
+
+	/** @return the contents of a file, as UTF-8 */
+	static String read(final File file) throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final byte[] buffer = new byte[(int) file.length()];
+			int offset = 0;
+			while (offset < buffer.length) {
+				final int len = in.read(buffer, offset, buffer.length - offset);
+				if (len < 0) break;
+				offset += len;
+			}
+			return new String(buffer, 0, offset, "UTF-8");
+		}
+		finally {
+			in.close();
+		}
+	}
+}
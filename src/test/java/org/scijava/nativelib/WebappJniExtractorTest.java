@@ -0,0 +1,222 @@
+/*
+ * #%L
+ * Native library loader for extracting and loading native libraries from Java.
+ * %%
+ * Copyright (C) 2010 - 2021 Board of Regents of the University of
+ * Wisconsin-Madison and Glencoe Software, Inc.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package org.scijava.nativelib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.scijava.nativelib.TestJars.createJar;
+import static org.scijava.nativelib.TestJars.read;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+public class WebappJniExtractorTest {
+
+	private static final File STORE = new File(PrivateDirectory.forUser(
+		BaseJniExtractor.getExtractionRoot(), "nativelib-webapp"), "store");
+
+	@Rule
+	public TemporaryFolder tmpTestDir = new TemporaryFolder();
+
+	@Test
+	public void testClassLoadersShareStoredLibrary() throws Exception {
+		// two deployments of the same application, each with its own jar
+		final URL first = createJar(tmpTestDir, "first.jar", "native-lib-loader");
+		final URL second = createJar(tmpTestDir, "second.jar", "native-lib-loader");
+		final WebappJniExtractor one = new WebappJniExtractor("one");
+		final WebappJniExtractor two = new WebappJniExtractor("two");
+		assertEquals(one.getNativeDir(), two.getNativeDir());
+
+		final File a = one.extractResource(one.getJniDir(), first, "libdummy.so");
+		final File b = two.extractResource(two.getJniDir(), second, "libdummy.so");
+		assertFalse(a.equals(b));
+		assertEquals("native-lib-loader", read(a));
+		assertEquals("native-lib-loader", read(b));
+
+		final File stored = new File(STORE, DigestRecord.hash(a));
+		assertTrue(stored.isFile());
+		assertTrue(Files.isSameFile(a.toPath(), stored.toPath()));
+		assertTrue(Files.isSameFile(b.toPath(), stored.toPath()));
+	}
+
+	@Test
+	public void testSeparateClassCopiesShareStore() throws Exception {
+		// two webapps, each loading its own copy of native-lib-loader
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "separate class copies");
+		final URL[] classpath = { location(WebappJniExtractor.class),
+			location(LoggerFactory.class) };
+		final URLClassLoader first = new URLClassLoader(classpath, null);
+		final URLClassLoader second = new URLClassLoader(classpath, null);
+		try {
+			final File a = extract(first, lib);
+			final File b = extract(second, lib);
+			assertFalse(a.getParentFile().equals(b.getParentFile()));
+
+			final File stored = new File(STORE, DigestRecord.hash(a));
+			assertTrue(Files.isSameFile(a.toPath(), stored.toPath()));
+			assertTrue(Files.isSameFile(b.toPath(), stored.toPath()));
+		}
+		finally {
+			first.close();
+			second.close();
+		}
+	}
+
+	private static URL location(final Class<?> c) {
+		return c.getProtectionDomain().getCodeSource().getLocation();
+	}
+
+	// Extracts a library with the WebappJniExtractor as loaded by a class loader
+	private static File extract(final ClassLoader loader, final URL lib)
+		throws Exception
+	{
+		final Class<?> c =
+			loader.loadClass(WebappJniExtractor.class.getName());
+		assertFalse(c == WebappJniExtractor.class);
+		final Object extractor =
+			c.getConstructor(String.class).newInstance("copy");
+		final File dir = (File) c.getMethod("getJniDir").invoke(extractor);
+		final Method extractResource = c.getDeclaredMethod("extractResource",
+			File.class, URL.class, String.class);
+		extractResource.setAccessible(true);
+		return (File) extractResource.invoke(extractor, dir, lib, "libdummy.so");
+	}
+
+	@Test
+	public void testPlantedLibraryIsReplaced() throws Exception {
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "the genuine library");
+		final WebappJniExtractor extractor = new WebappJniExtractor("planted");
+		try {
+			final File extracted =
+				extractor.extractResource(extractor.getJniDir(), lib, "libdummy.so");
+			final File stored = new File(STORE, DigestRecord.hash(extracted));
+
+			// same name and size, other contents
+			stored.delete();
+			final FileOutputStream out = new FileOutputStream(stored);
+			out.write("a planted library!!".getBytes("UTF-8"));
+			out.close();
+			stored.setLastModified(System.currentTimeMillis() - 60000);
+
+			final File again =
+				extractor.extractResource(extractor.getJniDir(), lib, "libdummy.so");
+			assertEquals("the genuine library", read(again));
+			assertEquals("the genuine library", read(stored));
+		}
+		finally {
+			extractor.close();
+		}
+	}
+
+	@Test
+	public void testPruneStore() throws Exception {
+		final File store = tmpTestDir.newFolder("store");
+		final File old = new File(store, "old");
+		final File recent = new File(store, "recent");
+		old.createNewFile();
+		recent.createNewFile();
+		old.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000);
+
+		// a link to a pruned library stays intact
+		final File link = new File(tmpTestDir.getRoot(), "link");
+		WebappJniExtractor.link(old, link);
+
+		assertEquals(1, WebappJniExtractor.pruneStore(store, 60 * 60 * 1000));
+		assertFalse(old.exists());
+		assertTrue(recent.exists());
+		assertTrue(link.exists());
+	}
+
+	@Test
+	public void testLinkReplacesExistingFile() throws Exception {
+		final File existing = tmpTestDir.newFile("existing");
+		final FileOutputStream out = new FileOutputStream(existing);
+		out.write("native-lib-loader".getBytes("UTF-8"));
+		out.close();
+
+		// linking twice, as when a class loader extracts a library again, must
+		// not truncate the file both paths refer to
+		final File link = new File(tmpTestDir.getRoot(), "link");
+		WebappJniExtractor.link(existing, link);
+		WebappJniExtractor.link(existing, link);
+		assertEquals("native-lib-loader", read(link));
+		assertEquals("native-lib-loader", read(existing));
+	}
+
+	@Test
+	public void testCloseDeletesDirectory() throws Exception {
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "native-lib-loader");
+		final WebappJniExtractor extractor = new WebappJniExtractor("closed");
+		final File extracted =
+			extractor.extractResource(extractor.getJniDir(), lib, "libdummy.so");
+		assertTrue(extracted.isFile());
+
+		extractor.close();
+		assertFalse(extracted.exists());
+		assertFalse(extractor.getJniDir().exists());
+		try {
+			extractor.extractResource(extractor.getJniDir(), lib, "libdummy.so");
+			fail("closed extractor extracted a library");
+		}
+		catch (final IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testUnreachableExtractorIsCleanedUp() throws Exception {
+		final URL lib = createJar(tmpTestDir, "dummy.jar", "native-lib-loader");
+		WebappJniExtractor extractor = new WebappJniExtractor("forgotten");
+		final File dir = extractor.getJniDir();
+		extractor.extractResource(dir, lib, "libdummy.so");
+
+		extractor = null;
+		final long deadline = System.currentTimeMillis() + 10000;
+		while (dir.exists() && System.currentTimeMillis() < deadline) {
+			System.gc();
+			Thread.sleep(50);
+			DirectoryCleaner.expunge();
+		}
+		assertFalse(dir.exists());
+	}
+}